@@ -0,0 +1,99 @@
+import java.util.Arrays;
+
+/** A HumanStore keeping the state of the humans on the heap, in segments of 16384 humans.
+ * The state of a human is a record of eight ints: row, column, step of birth, flags, steps
+ * of recovery and death, and two unused to keep records aligned, so that it takes a single
+ * cache line to reach */
+public class ArrayHumanStore extends HumanStore
+{
+    // The number of humans of a segment, as a power of two.
+    private static final int SEGMENT_SHIFT = 14;
+    // The number of ints of the record of a human, as a power of two.
+    private static final int RECORD_SHIFT = 3;
+    // The offsets of the parts of a record.
+    private static final int ROW = 0, COL = 1, BIRTH = 2, FLAGS = 3, RECOVERY = 4, DEATH = 5;
+
+    // The records of the segments. Segments are added, but never moved.
+    private int[][] segments;
+
+    /** Create an empty store */
+    public ArrayHumanStore() {
+        super(SEGMENT_SHIFT);
+        segments = new int[0][];
+    }
+
+    @Override
+    public int getRow(int handle) {
+        return segments[handle >>> SEGMENT_SHIFT][offset(handle) + ROW];
+    }
+
+    @Override
+    public int getCol(int handle) {
+        return segments[handle >>> SEGMENT_SHIFT][offset(handle) + COL];
+    }
+
+    @Override
+    public void setLocation(int handle, int row, int col) {
+        int[] segment = segments[handle >>> SEGMENT_SHIFT];
+        int offset = offset(handle);
+        segment[offset + ROW] = row;
+        segment[offset + COL] = col;
+    }
+
+    @Override
+    public int getBirthStep(int handle) {
+        return segments[handle >>> SEGMENT_SHIFT][offset(handle) + BIRTH];
+    }
+
+    @Override
+    public void setBirthStep(int handle, int step) {
+        segments[handle >>> SEGMENT_SHIFT][offset(handle) + BIRTH] = step;
+    }
+
+    @Override
+    public int getRecoveryStep(int handle) {
+        return segments[handle >>> SEGMENT_SHIFT][offset(handle) + RECOVERY];
+    }
+
+    @Override
+    public void setRecoveryStep(int handle, int step) {
+        segments[handle >>> SEGMENT_SHIFT][offset(handle) + RECOVERY] = step;
+    }
+
+    @Override
+    public int getDeathStep(int handle) {
+        return segments[handle >>> SEGMENT_SHIFT][offset(handle) + DEATH];
+    }
+
+    @Override
+    public void setDeathStep(int handle, int step) {
+        segments[handle >>> SEGMENT_SHIFT][offset(handle) + DEATH] = step;
+    }
+
+    @Override
+    public int getFlags(int handle) {
+        return segments[handle >>> SEGMENT_SHIFT][offset(handle) + FLAGS];
+    }
+
+    @Override
+    public void setFlags(int handle, int flags) {
+        segments[handle >>> SEGMENT_SHIFT][offset(handle) + FLAGS] = flags;
+    }
+
+    @Override
+    protected void addSegment(int segment) {
+        int[][] more = Arrays.copyOf(segments, segment + 1);
+        more[segment] = new int[(segmentMask + 1) << RECORD_SHIFT];
+        segments = more;
+    }
+
+    @Override
+    protected void clearState(int handle) {
+        Arrays.fill(segments[handle >>> SEGMENT_SHIFT], offset(handle), offset(handle) + (1 << RECORD_SHIFT), 0);
+    }
+
+    /** @return The offset of the record of a human within its segment */
+    private int offset(int handle) {
+        return (handle & segmentMask) << RECORD_SHIFT;
+    }
+}
@@ -0,0 +1,443 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.random.RandomGenerator;
+
+/** Microbenchmarks of the hot paths of the simulation: the neighbourhood queries of Field,
+ * Human.move, a whole headless step of Simulator and the FieldStats counts. Each benchmark
+ * is run on every grid size and population density, in a JVM of its own, so that the
+ * profile the JIT builds for one does not slow down the next. It is warmed up for a few
+ * iterations first; every iteration, warmup or measured, runs for a fixed time rather than
+ * a fixed number of operations, and starts from the same state: the simulation is put back
+ * to the population it started with, and the moves are made on freshly populated fields.
+ * Besides the time per operation, and how much it varied between iterations, it reports
+ * the bytes allocated per operation and the garbage collections made while measuring.
+ * Setting up an iteration, e.g. populating a field, is not measured.
+ *
+ * Run it with "java Benchmark [<name>...]" to run only the benchmarks whose name contains
+ * one of the given words, or through Maven with mvn -P benchmark verify (see pom.xml). The
+ * grids and densities can be changed with the system properties "bench.sizes" (e.g.
+ * 120x80,1000x1000) and "bench.densities" (e.g. 0.055,0.2), the threads of a step with
+ * "bench.threads", and "bench.fork=false" runs every benchmark in this JVM instead */
+public class Benchmark
+{
+    // How a forked benchmark is started: java Benchmark --run name grid density.
+    private static final String RUN = "--run";
+    // The names of the benchmarks, in the order they are run.
+    private static final String[] NAMES = { "Field.adjacentLocations", "Field.freeAdjacentLocation",
+            "Field.freeAdjacentDirection", "Field.infection", "FieldStats counts", "Human.move",
+            "Human.updateHealth", "Simulator.simulateOneStep" };
+    // The grid sizes (width x depth) benchmarked, unless others are given.
+    private static final String DEFAULT_SIZES = "120x80,500x500,1000x1000,4000x4000";
+    // The densities of humans benchmarked, unless others are given.
+    private static final String DEFAULT_DENSITIES = "0.055,0.2,0.5";
+    // The number of iterations run before measuring, and measured.
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int MEASURED_ITERATIONS = 5;
+    // The time an iteration runs for, in nanoseconds, not counting its setup.
+    private static final long ITERATION_TIME = 1_000_000_000L;
+    // The number of random positions the queries are made on, a power of two.
+    private static final int POSITIONS = 4096;
+    // The number of queries made in a batch, so that a batch takes long enough to time.
+    private static final int QUERIES = 1 << 18;
+    // The number of steps made in a batch, so the counters read around a batch cost little
+    // next to it.
+    private static final int STEPS = 16;
+    // The seed of every benchmark, so that they all see the same fields.
+    private static final long SEED = 1111;
+
+    // Results are added to this, so the JIT cannot drop the work that made them.
+    private static volatile long sink;
+
+    /** A benchmarked operation, performed in batches */
+    private interface Operation
+    {
+        /** Get ready for an iteration, e.g. by putting a simulation back in its first state.
+         * This is not measured */
+        default void startIteration() {
+        }
+
+        /** Get ready for a batch, e.g. by populating a field. This is not measured */
+        default void prepare() {
+        }
+
+        /** Perform a batch of operations, adding their results to sink.
+         * @return The number of operations performed */
+        int run();
+    }
+
+    /** Run the benchmarks.
+     * @param args Words selecting the benchmarks to run; all of them if none are given.
+     *             A forked JVM is given RUN, the name of one benchmark, its grid and density */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Randomizer.setSeed(SEED);
+        if(args.length == 4 && args[0].equals(RUN)) {
+            run(args[1], args[2], Double.parseDouble(args[3]));
+            return;
+        }
+        String[] sizes = System.getProperty("bench.sizes", DEFAULT_SIZES).split(",");
+        String[] densities = System.getProperty("bench.densities", DEFAULT_DENSITIES).split(",");
+        boolean fork = Boolean.parseBoolean(System.getProperty("bench.fork", "true"));
+
+        System.out.printf("%-28s %11s %8s %14s %10s %12s %6s %8s%n",
+                "Benchmark", "grid", "density", "ns/op", "stdev", "B/op", "gc", "gc ms");
+        for(String size : sizes) {
+            for(String density : densities) {
+                for(String name : NAMES) {
+                    if(!selected(args, name)) {
+                        continue;
+                    }
+                    if(fork) {
+                        fork(name, size.trim(), density.trim());
+                    }
+                    else {
+                        run(name, size.trim(), Double.parseDouble(density.trim()));
+                    }
+                }
+            }
+        }
+    }
+
+    /** Run one benchmark in a new JVM, with the class path, options and system properties of
+     * this one, and print its results.
+     * @param name The name of the benchmark.
+     * @param grid The grid size, width x depth.
+     * @param density The density of humans */
+    private static void fork(String name, String grid, String density) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("Benchmark");
+        command.add(RUN);
+        command.add(name);
+        command.add(grid);
+        command.add(density);
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        try(BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            for(String line = in.readLine(); line != null; line = in.readLine()) {
+                System.out.println(line);
+            }
+        }
+        int status = process.waitFor();
+        if(status != 0) {
+            System.out.println(name + " on " + grid + " at " + density + " failed with status " + status);
+        }
+    }
+
+    /** Run one benchmark in this JVM and print its results.
+     * @param name The name of the benchmark.
+     * @param grid The grid size, width x depth.
+     * @param density The density of humans */
+    private static void run(String name, String grid, double density) {
+        String[] dimensions = grid.split("x");
+        int width = Integer.parseInt(dimensions[0].trim());
+        int depth = Integer.parseInt(dimensions[1].trim());
+        measure(name, grid, density, operation(name, depth, width, density));
+    }
+
+    /** Create a benchmarked operation.
+     * @param name The name of the benchmark, one of NAMES.
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     * @param density The probability a position holds a human.
+     * @return The operation */
+    private static Operation operation(String name, int depth, int width, double density) {
+        if(name.equals("Human.move")) {
+            return moves(depth, width, density);
+        }
+        if(name.equals("Human.updateHealth")) {
+            return health(depth, width, density);
+        }
+        if(name.equals("Simulator.simulateOneStep")) {
+            return steps(depth, width, density);
+        }
+        Field field = populate(depth, width, density);
+        RandomGenerator rand = Randomizer.getStream(-1, 0);
+        int[] rows = new int[POSITIONS];
+        int[] cols = new int[POSITIONS];
+        Location[] locations = new Location[POSITIONS];
+        for(int i = 0; i < POSITIONS; i++) {
+            rows[i] = rand.nextInt(depth);
+            cols[i] = rand.nextInt(width);
+            locations[i] = new Location(rows[i], cols[i]);
+        }
+        switch(name) {
+            case "Field.adjacentLocations":
+                return () -> {
+                    long sum = 0;
+                    for(int i = 0; i < QUERIES; i++) {
+                        sum += field.adjacentLocations(locations[i & POSITIONS - 1]).size();
+                    }
+                    sink += sum;
+                    return QUERIES;
+                };
+            case "Field.freeAdjacentLocation":
+                return () -> {
+                    long sum = 0;
+                    for(int i = 0; i < QUERIES; i++) {
+                        Location free = field.freeAdjacentLocation(locations[i & POSITIONS - 1]);
+                        sum += free != null ? free.getRow() : -1;
+                    }
+                    sink += sum;
+                    return QUERIES;
+                };
+            case "Field.freeAdjacentDirection":
+                return () -> {
+                    long sum = 0;
+                    for(int i = 0; i < QUERIES; i++) {
+                        int p = i & POSITIONS - 1;
+                        sum += field.freeAdjacentDirection(rows[p], cols[p], rand);
+                    }
+                    sink += sum;
+                    return QUERIES;
+                };
+            case "Field.infection":
+                return () -> {
+                    long sum = 0;
+                    for(int i = 0; i < QUERIES; i++) {
+                        int p = i & POSITIONS - 1;
+                        if(field.infection(rows[p], cols[p])) {
+                            sum++;
+                        }
+                    }
+                    sink += sum;
+                    return QUERIES;
+                };
+            case "FieldStats counts":
+                FieldStats stats = field.getStats();
+                return () -> {
+                    long sum = 0;
+                    for(int i = 0; i < QUERIES; i++) {
+                        sum += stats.getPopulation() + stats.infectedCount() + stats.vaccinatedCount() + stats.deadCount();
+                    }
+                    sink += sum;
+                    return QUERIES;
+                };
+            default:
+                throw new IllegalArgumentException("No such benchmark: " + name);
+        }
+    }
+
+    /** Benchmark Human.move: an operation is the move of one human, and a batch moves every
+     * human of a freshly populated field once. Populating is not measured */
+    private static Operation moves(int depth, int width, double density) {
+        return new Operation()
+        {
+            // The humans of the field of the batch, and those born during the batch.
+            private List<Human> humans;
+            private final List<Human> newBorn = new ArrayList<>();
+            // The number of batches so far, so each draws different numbers.
+            private int batches;
+
+            @Override
+            public void prepare() {
+                humans = humansOf(populate(depth, width, density));
+                newBorn.clear();
+            }
+
+            @Override
+            public int run() {
+                RandomGenerator rand = Randomizer.getStream(batches++, 1);
+                for(Human human : humans) {
+                    human.move(newBorn, rand);
+                }
+                sink += newBorn.size();
+                return humans.size();
+            }
+        };
+    }
+
+    /** Benchmark the kernel of the quarantine and vaccination of a step, Human.updateHealth,
+     * run by VectorHealth if simulation.vectorHealth is true: an operation is the update of
+     * one human, and a batch updates every human of a populated field at least once */
+    private static Operation health(int depth, int width, double density) {
+        Field field = populate(depth, width, density);
+        HumanStore store = field.getHumanStore();
+        List<Human> humans = humansOf(field);
+        int count = humans.size();
+        long[] flags = new long[count];
+        long[] updated = new long[count];
+        double[] uniforms = new double[count];
+        for(int i = 0; i < count; i++) {
+            flags[i] = store.getFlags(humans.get(i).getHandle());
+        }
+        Randomizer.fillUniform(SEED, 1, 0, uniforms, count);
+        SimulationConfig config = SimulationConfig.DEFAULT;
+        // Small fields are updated several times in a batch, so that a batch takes long
+        // enough to time.
+        int passes = Math.max(1, QUERIES / Math.max(1, count));
+        return () -> {
+            for(int i = 0; i < passes; i++) {
+                Human.updateHealth(flags, uniforms, updated, count, config);
+            }
+            sink += updated[count - 1];
+            return passes * count;
+        };
+    }
+
+    /** Benchmark Simulator.simulateOneStep: an operation is a step of a headless simulation,
+     * on the number of threads given by bench.threads, and a batch is STEPS steps. Every
+     * iteration starts again from the first population, so the iterations measure the same
+     * steps */
+    private static Operation steps(int depth, int width, double density) {
+        Simulator sim = new Simulator(depth, width, density);
+        sim.setParallelism(Integer.getInteger("bench.threads", 1), 16);
+        Checkpoint start = sim.checkpoint();
+        return new Operation()
+        {
+            @Override
+            public void startIteration() {
+                sim.restore(start);
+            }
+
+            @Override
+            public int run() {
+                for(int i = 0; i < STEPS; i++) {
+                    sim.simulateOneStep();
+                }
+                sink += sim.allHumans.size();
+                return STEPS;
+            }
+        };
+    }
+
+    /** Warm an operation up, then measure it and print the results. Each iteration runs
+     * batches of the operation until ITERATION_TIME has been spent in them.
+     * @param name The name of the benchmark.
+     * @param grid The grid size, as shown in the results.
+     * @param density The density of humans, as shown in the results.
+     * @param operation The operation to measure */
+    private static void measure(String name, String grid, double density, Operation operation) {
+        for(int i = 0; i < WARMUP_ITERATIONS; i++) {
+            iterate(operation, null);
+        }
+        // The time, operations, bytes, collections and collection time of each iteration.
+        long[][] results = new long[MEASURED_ITERATIONS][];
+        for(int i = 0; i < MEASURED_ITERATIONS; i++) {
+            results[i] = new long[5];
+            iterate(operation, results[i]);
+        }
+        double[] nanos = new double[MEASURED_ITERATIONS];
+        double mean = 0;
+        long operations = 0, bytes = 0, collections = 0, collectionMillis = 0;
+        for(int i = 0; i < MEASURED_ITERATIONS; i++) {
+            nanos[i] = (double) results[i][0] / results[i][1];
+            mean += nanos[i] / MEASURED_ITERATIONS;
+            operations += results[i][1];
+            bytes += results[i][2];
+            collections += results[i][3];
+            collectionMillis += results[i][4];
+        }
+        double variance = 0;
+        for(double value : nanos) {
+            variance += (value - mean) * (value - mean) / (MEASURED_ITERATIONS - 1);
+        }
+        System.out.printf("%-28s %11s %8.3f %14.1f %10.1f %12.1f %6d %8d%n", name, grid, density, mean,
+                Math.sqrt(variance), (double) bytes / operations, collections, collectionMillis);
+    }
+
+    /** Run one iteration of an operation.
+     * @param operation The operation.
+     * @param results Set to the time, operations, bytes allocated, collections and
+     *                collection time of the iteration, or null if they are not wanted */
+    private static void iterate(Operation operation, long[] results) {
+        operation.startIteration();
+        long time = 0, operations = 0, bytes = 0, collections = 0, collectionMillis = 0;
+        while(time < ITERATION_TIME) {
+            operation.prepare();
+            // The allocation counter is read innermost, so the garbage the GC counters make
+            // is not counted.
+            long gcCount = gcCount();
+            long gcTime = gcTime();
+            long allocated = allocatedBytes();
+            long start = System.nanoTime();
+            operations += operation.run();
+            time += System.nanoTime() - start;
+            bytes += allocatedBytes() - allocated;
+            collections += gcCount() - gcCount;
+            collectionMillis += gcTime() - gcTime;
+        }
+        if(results != null) {
+            results[0] = time;
+            results[1] = operations;
+            results[2] = bytes;
+            results[3] = collections;
+            results[4] = collectionMillis;
+        }
+    }
+
+    /** @return true if the benchmark of the given name was selected */
+    private static boolean selected(String[] filter, String name) {
+        if(filter.length == 0) {
+            return true;
+        }
+        for(String word : filter) {
+            if(name.contains(word)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Create a field where each position holds a human with the given probability */
+    private static Field populate(int depth, int width, double density) {
+        Field field = new Field(depth, width);
+        RandomGenerator rand = Randomizer.getStream(0, 0);
+        for(int row = 0; row < depth; row++) {
+            for(int col = 0; col < width; col++) {
+                if(rand.nextDouble() < density) {
+                    new Human(true, true, field, row, col, rand);
+                }
+            }
+        }
+        return field;
+    }
+
+    /** @return The humans of a field, in row order */
+    private static List<Human> humansOf(Field field) {
+        List<Human> humans = new ArrayList<>();
+        for(int row = 0; row < field.getDepth(); row++) {
+            for(int col = 0; col < field.getWidth(); col++) {
+                Human human = field.getObjectAt(row, col);
+                if(human != null) {
+                    humans.add(human);
+                }
+            }
+        }
+        return humans;
+    }
+
+    /** @return The bytes allocated by the current thread so far, or 0 if the JVM cannot tell */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if(threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    /** @return The number of garbage collections so far */
+    private static long gcCount() {
+        long count = 0;
+        for(GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+
+    /** @return The time spent collecting garbage so far, in milliseconds */
+    private static long gcTime() {
+        long time = 0;
+        for(GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(0, collector.getCollectionTime());
+        }
+        return time;
+    }
+}
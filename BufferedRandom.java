@@ -0,0 +1,51 @@
+import java.util.random.RandomGenerator;
+
+/** A random generator that draws the numbers of another generator in blocks. Filling a
+ * buffer in one tight loop keeps the state of the underlying generator in registers,
+ * and every other kind of number (doubles, bounded ints, ...) is made from the buffered
+ * longs. It is not thread safe: every thread should have a generator of its own */
+public class BufferedRandom implements RandomGenerator
+{
+    // The generator the numbers come from.
+    private RandomGenerator source;
+    // The numbers drawn but not yet used.
+    private final long[] buffer;
+    // The position of the next number to use in the buffer.
+    private int next;
+
+    /** Create a generator drawing from the given one.
+     * @param source The generator the numbers come from.
+     * @param size The number of values to draw at a time */
+    public BufferedRandom(RandomGenerator source, int size) {
+        this.source = source;
+        this.buffer = new long[size];
+        next = size;
+    }
+
+    /** Draw from another generator from now on, dropping the numbers buffered from the old
+     * one, so that the buffer can be used again for a new stream.
+     * @param newSource The generator the numbers come from */
+    public void reset(RandomGenerator newSource) {
+        source = newSource;
+        next = buffer.length;
+    }
+
+    /** @return The next number of the underlying generator */
+    @Override
+    public long nextLong() {
+        if(next == buffer.length) {
+            fill();
+        }
+        return buffer[next++];
+    }
+
+    /** Draw a whole buffer of numbers from the underlying generator */
+    private void fill() {
+        RandomGenerator generator = source;
+        long[] values = buffer;
+        for(int i = 0; i < values.length; i++) {
+            values[i] = generator.nextLong();
+        }
+        next = 0;
+    }
+}
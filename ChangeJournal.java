@@ -0,0 +1,170 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** The positions of a field that have changed: a human arrived, left, died, was born or
+ * changed its state. The journal is a bitset with one bit per position, 64 positions of a
+ * row to a long, along with the list of the longs that have any bit set, so the changes can
+ * be gone through in time proportional to their number rather than to the area of the
+ * field. A journal can also say that everything has changed, e.g. after the field has been
+ * emptied.
+ *
+ * The field keeps the journal of the current step (see Field.getChanges). An observer that
+ * does not look at every step keeps a journal of its own and adds the field's to it after
+ * every step, until it gets round to the changes.
+ *
+ * Positions can be marked from several threads at once, e.g. during a parallel step, but
+ * the journal must only be read, added to or cleared between steps */
+public class ChangeJournal
+{
+    // Atomic access to the bits of the positions.
+    private static final VarHandle WORDS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    // The depth and width of the field.
+    private final int depth, width;
+    // The number of longs of each row.
+    private final int wordsPerRow;
+    // One bit for each position of the field, set if it has changed.
+    private final long[] words;
+    // The indices of the longs of words that have any bit set, in the order they were set.
+    private final int[] dirty;
+    // The number of entries of dirty.
+    private final AtomicInteger dirtyCount;
+    // Whether every position counts as changed, whatever the bits say.
+    private boolean all;
+
+    /** Create a journal of a field of the given size, in which every position has changed.
+     * @param depth The depth of the field.
+     * @param width The width of the field */
+    public ChangeJournal(int depth, int width) {
+        this.depth = depth;
+        this.width = width;
+        wordsPerRow = (width + 63) >>> 6;
+        words = new long[depth * wordsPerRow];
+        dirty = new int[words.length];
+        dirtyCount = new AtomicInteger();
+        all = true;
+    }
+
+    /** Record that a position has changed.
+     * @param row The row of the position.
+     * @param col The column of the position */
+    public void mark(int row, int col) {
+        if(all) {
+            return;
+        }
+        int index = row * wordsPerRow + (col >>> 6);
+        long bit = 1L << col;
+        if((words[index] & bit) == 0 && (long) WORDS.getAndBitwiseOr(words, index, bit) == 0) {
+            // The first position of the long: only one thread sees it was empty.
+            dirty[dirtyCount.getAndIncrement()] = index;
+        }
+    }
+
+    /** Record that every position has changed */
+    public void markAll() {
+        clear();
+        all = true;
+    }
+
+    /** Forget every change */
+    public void clear() {
+        int count = dirtyCount.get();
+        for(int i = 0; i < count; i++) {
+            words[dirty[i]] = 0;
+        }
+        dirtyCount.set(0);
+        all = false;
+    }
+
+    /** Record the changes of another journal as well.
+     * @param other A journal of a field of the same size */
+    public void addAll(ChangeJournal other) {
+        if(other.depth != depth || other.width != width) {
+            throw new IllegalArgumentException("The journal is of a " + other.depth + "x" + other.width
+                    + " field, not " + depth + "x" + width);
+        }
+        if(all) {
+            return;
+        }
+        if(other.all) {
+            markAll();
+            return;
+        }
+        int count = other.dirtyCount.get();
+        for(int i = 0; i < count; i++) {
+            int index = other.dirty[i];
+            if(words[index] == 0) {
+                dirty[dirtyCount.getAndIncrement()] = index;
+            }
+            words[index] |= other.words[index];
+        }
+    }
+
+    /** @return true if every position counts as changed */
+    public boolean isAll() {
+        return all;
+    }
+
+    /** @return The number of positions that have changed */
+    public int size() {
+        if(all) {
+            return depth * width;
+        }
+        int size = 0;
+        int count = dirtyCount.get();
+        for(int i = 0; i < count; i++) {
+            size += Long.bitCount(words[dirty[i]]);
+        }
+        return size;
+    }
+
+    /** Find the positions that have changed, in row-major order.
+     * @param positions Filled with the index row * width + col of every position that has
+     *                  changed. It must hold at least size() ints.
+     * @return The number of positions found */
+    public int getPositions(int[] positions) {
+        if(all) {
+            for(int i = 0; i < depth * width; i++) {
+                positions[i] = i;
+            }
+            return depth * width;
+        }
+        int count = dirtyCount.get();
+        Arrays.sort(dirty, 0, count);
+        int size = 0;
+        for(int i = 0; i < count; i++) {
+            int index = dirty[i];
+            int base = index / wordsPerRow * width + (index % wordsPerRow << 6);
+            for(long bits = words[index]; bits != 0; bits &= bits - 1) {
+                positions[size++] = base + Long.numberOfTrailingZeros(bits);
+            }
+        }
+        return size;
+    }
+
+    /** Find the rows with a position that has changed.
+     * @param rows Set to true for every row with a change, and left alone for the others.
+     *             It must hold a boolean for each row of the field */
+    public void getRows(boolean[] rows) {
+        if(all) {
+            Arrays.fill(rows, 0, depth, true);
+            return;
+        }
+        int count = dirtyCount.get();
+        for(int i = 0; i < count; i++) {
+            rows[dirty[i] / wordsPerRow] = true;
+        }
+    }
+
+    /** @return The depth of the field */
+    public int getDepth() {
+        return depth;
+    }
+
+    /** @return The width of the field */
+    public int getWidth() {
+        return width;
+    }
+}
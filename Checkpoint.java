@@ -0,0 +1,249 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/** An immutable copy of everything a simulation needs to carry on from a step: the size of
+ * the field, the state of every human in the order they act, the step counter, the counts
+ * of births and deaths, and the seed and algorithm of its random streams. The random streams
+ * of a step are derived from the seed and the step alone, so a restored simulation goes on
+ * exactly as the original one would have.
+ *
+ * A checkpoint is taken between two steps, which only copies the state of the humans into
+ * a few primitive arrays, and can then be written to a file by another thread while the
+ * simulation carries on (see CheckpointWriter).
+ *
+ * The file holds a header, then the rows, columns, ages and steps of recovery and death of
+ * the humans as arrays of ints and their flags as an array of bytes, all little-endian. Reading a
+ * checkpoint maps the file and copies each array in bulk */
+public class Checkpoint
+{
+    // Identifies a checkpoint file: "HSCP".
+    private static final int MAGIC = 0x48534350;
+    // The version of the format of the file.
+    private static final int VERSION = 2;
+    // The number of bytes of the state of a human in the file.
+    private static final int RECORD_SIZE = 5 * Integer.BYTES + 1;
+
+    // The depth and width of the field.
+    private final int depth, width;
+    // The step the checkpoint was taken at.
+    private final int step;
+    // The seed and the algorithm of the random streams of the simulation.
+    private final long seed;
+    private final String algorithm;
+    // The number of human updates made since the last reset.
+    private final long humanUpdates;
+    // The humans born and dead since the last reset.
+    private final int births, deaths;
+    // The state of each human, in the order they act (see HumanStore).
+    private final int[] rows, cols, ages, recoverySteps, deathSteps;
+    private final byte[] flags;
+
+    /** Take a checkpoint of a simulation. It must not be stepping while this runs.
+     * @param simulator The simulation */
+    public Checkpoint(Simulator simulator) {
+        Field field = simulator.getField();
+        HumanStore store = field.getHumanStore();
+        List<Human> humans = simulator.allHumans;
+        depth = field.getDepth();
+        width = field.getWidth();
+        step = simulator.getStep();
+        seed = simulator.getSeed();
+        algorithm = simulator.getAlgorithm();
+        humanUpdates = simulator.getHumanUpdates();
+        births = field.getStats().birthCount();
+        deaths = field.getStats().deadCount();
+        int count = humans.size();
+        rows = new int[count];
+        cols = new int[count];
+        ages = new int[count];
+        recoverySteps = new int[count];
+        deathSteps = new int[count];
+        flags = new byte[count];
+        for(int i = 0; i < count; i++) {
+            int handle = humans.get(i).getHandle();
+            rows[i] = store.getRow(handle);
+            cols[i] = store.getCol(handle);
+            ages[i] = step - store.getBirthStep(handle);
+            recoverySteps[i] = store.getRecoveryStep(handle);
+            deathSteps[i] = store.getDeathStep(handle);
+            flags[i] = (byte) store.getFlags(handle);
+        }
+    }
+
+    /** Create a checkpoint from its parts, as read from a file */
+    private Checkpoint(int depth, int width, int step, long seed, String algorithm, long humanUpdates,
+                       int births, int deaths, int[] rows, int[] cols, int[] ages,
+                       int[] recoverySteps, int[] deathSteps, byte[] flags) {
+        this.depth = depth;
+        this.width = width;
+        this.step = step;
+        this.seed = seed;
+        this.algorithm = algorithm;
+        this.humanUpdates = humanUpdates;
+        this.births = births;
+        this.deaths = deaths;
+        this.rows = rows;
+        this.cols = cols;
+        this.ages = ages;
+        this.recoverySteps = recoverySteps;
+        this.deathSteps = deathSteps;
+        this.flags = flags;
+    }
+
+    /** Write the checkpoint to a file. It is written to a temporary file next to it first
+     * and then moved in place, so the file always holds a whole checkpoint, even if the
+     * program dies while writing.
+     * @param file The file to write.
+     * @throws IOException If the file cannot be written */
+    public void write(Path file) throws IOException {
+        byte[] name = algorithm.getBytes(StandardCharsets.UTF_8);
+        int count = rows.length;
+        ByteBuffer buffer = ByteBuffer.allocate(headerSize(name.length) + count * RECORD_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION)
+                .putInt(depth).putInt(width).putInt(step)
+                .putLong(seed).putLong(humanUpdates)
+                .putInt(births).putInt(deaths).putInt(count)
+                .putShort((short) name.length).put(name);
+        putInts(buffer, rows);
+        putInts(buffer, cols);
+        putInts(buffer, ages);
+        putInts(buffer, recoverySteps);
+        putInts(buffer, deathSteps);
+        buffer.put(flags);
+        buffer.flip();
+
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try(FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while(buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Read a checkpoint written by write.
+     * @param file The file to read.
+     * @return The checkpoint
+     * @throws IOException If the file cannot be read, or is not a checkpoint of this version */
+    public static Checkpoint read(Path file) throws IOException {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if(buffer.remaining() < headerSize(0) || buffer.getInt() != MAGIC) {
+                throw new IOException("Not a checkpoint: " + file);
+            }
+            int version = buffer.getInt();
+            if(version != VERSION) {
+                throw new IOException("Unsupported checkpoint version " + version + ": " + file);
+            }
+            int depth = buffer.getInt();
+            int width = buffer.getInt();
+            int step = buffer.getInt();
+            long seed = buffer.getLong();
+            long humanUpdates = buffer.getLong();
+            int births = buffer.getInt();
+            int deaths = buffer.getInt();
+            int count = buffer.getInt();
+            byte[] name = new byte[buffer.getShort()];
+            buffer.get(name);
+            if(count < 0 || buffer.remaining() != (long) count * RECORD_SIZE) {
+                throw new IOException("Truncated checkpoint: " + file);
+            }
+            int[] rows = getInts(buffer, count);
+            int[] cols = getInts(buffer, count);
+            int[] ages = getInts(buffer, count);
+            int[] recoverySteps = getInts(buffer, count);
+            int[] deathSteps = getInts(buffer, count);
+            byte[] flags = new byte[count];
+            buffer.get(flags);
+            return new Checkpoint(depth, width, step, seed, new String(name, StandardCharsets.UTF_8),
+                    humanUpdates, births, deaths, rows, cols, ages, recoverySteps, deathSteps, flags);
+        }
+    }
+
+    /** Put back the state of the checkpoint into a field that is empty and at the step of
+     * the checkpoint. The humans are created in the order they act.
+     * @param field The field, of the same size as the checkpoint.
+     * @param humans The list to add the humans to */
+    void restoreHumans(Field field, List<Human> humans) {
+        for(int i = 0; i < rows.length; i++) {
+            humans.add(new Human(field, rows[i], cols[i], ages[i], recoverySteps[i], deathSteps[i], flags[i]));
+        }
+    }
+
+    /** @return The number of bytes of the header of a file */
+    private static int headerSize(int nameLength) {
+        return 8 * Integer.BYTES + 2 * Long.BYTES + Short.BYTES + nameLength;
+    }
+
+    /** Put an array of ints into a buffer in bulk */
+    private static void putInts(ByteBuffer buffer, int[] values) {
+        buffer.asIntBuffer().put(values);
+        buffer.position(buffer.position() + values.length * Integer.BYTES);
+    }
+
+    /** Get an array of ints from a buffer in bulk */
+    private static int[] getInts(ByteBuffer buffer, int count) {
+        int[] values = new int[count];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + count * Integer.BYTES);
+        return values;
+    }
+
+    /** @return The depth of the field */
+    public int getDepth() {
+        return depth;
+    }
+
+    /** @return The width of the field */
+    public int getWidth() {
+        return width;
+    }
+
+    /** @return The step the checkpoint was taken at */
+    public int getStep() {
+        return step;
+    }
+
+    /** @return The seed of the simulation */
+    public long getSeed() {
+        return seed;
+    }
+
+    /** @return The name of the algorithm of the random streams of the simulation */
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    /** @return The number of human updates made since the last reset */
+    public long getHumanUpdates() {
+        return humanUpdates;
+    }
+
+    /** @return The number of humans born since the last reset */
+    public int getBirths() {
+        return births;
+    }
+
+    /** @return The number of humans that died since the last reset */
+    public int getDeaths() {
+        return deaths;
+    }
+
+    /** @return The number of humans */
+    public int getPopulation() {
+        return rows.length;
+    }
+}
@@ -0,0 +1,110 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/** Write checkpoints of a simulation at regular intervals. As an observer of the simulation
+ * it takes a Checkpoint every so many steps, between two steps, and hands it to a thread of
+ * its own to be written, so the simulation carries on while the file is written. If the
+ * previous checkpoint is still being written when the next one is due, the next one is
+ * skipped rather than holding up the simulation */
+public class CheckpointWriter implements SimulatorObserver
+{
+    // The simulation to take checkpoints of.
+    private final Simulator simulator;
+    // The file the checkpoints are written to, each replacing the previous one.
+    private final Path file;
+    // The number of steps between two checkpoints.
+    private final int interval;
+    // The thread the checkpoints are written on.
+    private final ExecutorService writer;
+    // The checkpoint being written, or null before the first one.
+    private Future<?> pending;
+    // The number of checkpoints skipped because the previous one was still being written.
+    private int skipped;
+    // The first error writing a checkpoint, or null if there was none.
+    private volatile IOException failure;
+
+    /** Create a writer of checkpoints and add it to the observers of the simulation.
+     * @param simulator The simulation to take checkpoints of.
+     * @param file The file to write the checkpoints to.
+     * @param interval The number of steps between two checkpoints */
+    public CheckpointWriter(Simulator simulator, Path file, int interval) {
+        if(interval < 1) {
+            throw new IllegalArgumentException("The interval must be at least one step: " + interval);
+        }
+        this.simulator = simulator;
+        this.file = file;
+        this.interval = interval;
+        writer = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "checkpoint");
+            thread.setDaemon(true);
+            return thread;
+        });
+        simulator.addObserver(this);
+    }
+
+    @Override
+    public void stepCompleted(int step, Field field) {
+        if(step > 0 && step % interval == 0) {
+            if(pending != null && !pending.isDone()) {
+                skipped++;
+                return;
+            }
+            write(simulator.checkpoint());
+        }
+    }
+
+    /** Take a checkpoint now, wait until it and any other pending checkpoint are written,
+     * and stop writing checkpoints.
+     * @throws IOException If any checkpoint could not be written */
+    public void close() throws IOException {
+        simulator.removeObserver(this);
+        await();
+        write(simulator.checkpoint());
+        await();
+        writer.shutdown();
+        if(failure != null) {
+            throw failure;
+        }
+    }
+
+    /** @return The number of checkpoints skipped because the previous one was still being written */
+    public int getSkipped() {
+        return skipped;
+    }
+
+    /** Start writing a checkpoint on the thread of the writer.
+     * @param checkpoint The checkpoint */
+    private void write(Checkpoint checkpoint) {
+        pending = writer.submit(() -> {
+            try {
+                checkpoint.write(file);
+            }
+            catch(IOException e) {
+                if(failure == null) {
+                    failure = e;
+                }
+            }
+        });
+    }
+
+    /** Wait until the pending checkpoint is written */
+    private void await() throws IOException {
+        if(pending == null) {
+            return;
+        }
+        try {
+            pending.get();
+        }
+        catch(ExecutionException e) {
+            throw new IOException("Cannot write a checkpoint", e.getCause());
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing a checkpoint", e);
+        }
+    }
+}
@@ -0,0 +1,218 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** A FieldStore on the heap. The positions are stored in chunks of 8 rows by 64 columns,
+ * which are only allocated once a human is placed in them or next to them, and released by
+ * releaseEmpty once they are empty again and no human is next to them. The memory of a
+ * field thus grows with its population rather than its area */
+public class ChunkedFieldStore implements FieldStore
+{
+    // Updates the words of the bitplane atomically, as tiles may share a word.
+    private static final VarHandle WORDS = MethodHandles.arrayElementVarHandle(long[].class);
+    // Installs new chunks atomically, as tiles may share a chunk.
+    private static final VarHandle CHUNKS = MethodHandles.arrayElementVarHandle(Chunk[].class);
+    // The number of low bits of a row that select a row within a chunk.
+    private static final int CHUNK_ROW_SHIFT = 3;
+    // The number of low bits of a column that select a column within a chunk.
+    // A row of a chunk is thus exactly one word of the bitplane.
+    private static final int CHUNK_COL_SHIFT = 6;
+    // The number of rows and columns of a chunk.
+    private static final int CHUNK_ROWS = 1 << CHUNK_ROW_SHIFT;
+    private static final int CHUNK_COLS = 1 << CHUNK_COL_SHIFT;
+    private static final int CHUNK_ROW_MASK = CHUNK_ROWS - 1;
+    private static final int CHUNK_COL_MASK = CHUNK_COLS - 1;
+
+    // The depth and width of the field.
+    private final int depth, width;
+    // Storage for the humans, chunk row after chunk row. A chunk is null while empty.
+    private final Chunk[] chunks;
+    // The number of chunks across the width of the field.
+    private final int chunkColumns;
+
+    /** Create an empty store for a field of the given dimensions.
+     * @param depth The depth of the field.
+     * @param width The width of the field */
+    public ChunkedFieldStore(int depth, int width) {
+        this.depth = depth;
+        this.width = width;
+        chunkColumns = (width + CHUNK_COL_MASK) >>> CHUNK_COL_SHIFT;
+        int chunkRows = (depth + CHUNK_ROW_MASK) >>> CHUNK_ROW_SHIFT;
+        chunks = new Chunk[Math.multiplyExact(chunkRows, chunkColumns)];
+    }
+
+    @Override
+    public Human get(int row, int col) {
+        Chunk chunk = chunks[chunkIndex(row, col)];
+        return chunk != null ? chunk.cells[cellIndex(row, col)] : null;
+    }
+
+    @Override
+    public boolean isOccupied(int row, int col) {
+        return get(row, col) != null;
+    }
+
+    @Override
+    public void set(int row, int col, Human human) {
+        Chunk chunk = human != null ? allocateChunk(row, col) : chunks[chunkIndex(row, col)];
+        if(chunk == null) {
+            return;
+        }
+        int index = cellIndex(row, col);
+        if(chunk.cells[index] == null && human != null) {
+            chunk.occupied.incrementAndGet();
+        }
+        else if(chunk.cells[index] != null && human == null) {
+            chunk.occupied.decrementAndGet();
+        }
+        chunk.cells[index] = human;
+    }
+
+    @Override
+    public void setContagious(int row, int col, boolean value) {
+        Chunk chunk = value ? allocateChunk(row, col) : chunks[chunkIndex(row, col)];
+        if(chunk == null) {
+            return;
+        }
+        long[] words = chunk.contagious;
+        int index = row & CHUNK_ROW_MASK;
+        long bit = 1L << col;
+        if(((words[index] & bit) != 0) != value) {
+            if(value) {
+                WORDS.getAndBitwiseOr(words, index, bit);
+            }
+            else {
+                WORDS.getAndBitwiseAnd(words, index, ~bit);
+            }
+        }
+    }
+
+    @Override
+    public long contagiousWord(int row, int word) {
+        // A chunk is exactly one word wide.
+        Chunk chunk = chunks[(row >>> CHUNK_ROW_SHIFT) * chunkColumns + word];
+        return chunk != null ? chunk.contagious[row & CHUNK_ROW_MASK] : 0;
+    }
+
+    @Override
+    public int occupiedNeighbours(int row, int col) {
+        Chunk chunk = chunks[chunkIndex(row, col)];
+        return chunk != null ? chunk.neighbours[cellIndex(row, col)] & 0xFF : 0;
+    }
+
+    @Override
+    public void setOccupiedAround(int row, int col, boolean value) {
+        int chunkRow = row & CHUNK_ROW_MASK;
+        int chunkCol = col & CHUNK_COL_MASK;
+        if(chunkRow == 0 || chunkRow == CHUNK_ROW_MASK || chunkCol == 0 || chunkCol == CHUNK_COL_MASK) {
+            // The neighbours may be in other chunks, or outside the field.
+            for(int d = 0; d < 8; d++) {
+                int nextRow = Field.adjacentRow(row, d);
+                int nextCol = Field.adjacentCol(col, d);
+                if(nextRow >= 0 && nextRow < depth && nextCol >= 0 && nextCol < width) {
+                    Chunk chunk = value ? allocateChunk(nextRow, nextCol) : chunks[chunkIndex(nextRow, nextCol)];
+                    if(chunk != null) {
+                        chunk.neighbours[cellIndex(nextRow, nextCol)] ^= 1 << (7 - d);
+                    }
+                }
+            }
+            return;
+        }
+        // All the neighbours are in the chunk of the position, in directions 0 to 7.
+        Chunk chunk = value ? allocateChunk(row, col) : chunks[chunkIndex(row, col)];
+        if(chunk == null) {
+            return;
+        }
+        byte[] neighbours = chunk.neighbours;
+        int index = cellIndex(row, col);
+        neighbours[index - CHUNK_COLS - 1] ^= 1 << 7;
+        neighbours[index - CHUNK_COLS] ^= 1 << 6;
+        neighbours[index - CHUNK_COLS + 1] ^= 1 << 5;
+        neighbours[index - 1] ^= 1 << 4;
+        neighbours[index + 1] ^= 1 << 3;
+        neighbours[index + CHUNK_COLS - 1] ^= 1 << 2;
+        neighbours[index + CHUNK_COLS] ^= 1 << 1;
+        neighbours[index + CHUNK_COLS + 1] ^= 1;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(chunks, null);
+    }
+
+    @Override
+    public int releaseEmpty() {
+        int released = 0;
+        for(int i = 0; i < chunks.length; i++) {
+            if(chunks[i] != null && chunks[i].isEmpty()) {
+                chunks[i] = null;
+                released++;
+            }
+        }
+        return released;
+    }
+
+    @Override
+    public int getBlockCount() {
+        int count = 0;
+        for(Chunk chunk : chunks) {
+            if(chunk != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /** @return The index in chunks of the chunk holding the given position */
+    private int chunkIndex(int row, int col) {
+        return (row >>> CHUNK_ROW_SHIFT) * chunkColumns + (col >>> CHUNK_COL_SHIFT);
+    }
+
+    /** @return The index of the given position within its chunk */
+    private static int cellIndex(int row, int col) {
+        return ((row & CHUNK_ROW_MASK) << CHUNK_COL_SHIFT) | (col & CHUNK_COL_MASK);
+    }
+
+    /** Find the chunk holding the given position, allocating it if need be.
+     * @return The chunk of the position */
+    private Chunk allocateChunk(int row, int col) {
+        int index = chunkIndex(row, col);
+        Chunk chunk = chunks[index];
+        if(chunk == null) {
+            Chunk created = new Chunk();
+            // Another tile may have allocated the chunk in the meantime.
+            chunk = (Chunk) CHUNKS.compareAndExchange(chunks, index, (Chunk) null, created);
+            if(chunk == null) {
+                chunk = created;
+            }
+        }
+        return chunk;
+    }
+
+    /** A block of 8 rows by 64 columns of the field */
+    private static class Chunk
+    {
+        // The humans of the chunk, row after row.
+        final Human[] cells = new Human[CHUNK_ROWS * CHUNK_COLS];
+        // The bitplane of the contagious positions of the chunk, one word per row.
+        final long[] contagious = new long[CHUNK_ROWS];
+        // The number of positions of the chunk holding a human.
+        final AtomicInteger occupied = new AtomicInteger();
+        // The masks of the occupied neighbours of the positions of the chunk, row after row.
+        final byte[] neighbours = new byte[CHUNK_ROWS * CHUNK_COLS];
+
+        /** @return true if no position of the chunk holds a human or has one next to it */
+        boolean isEmpty() {
+            if(occupied.get() != 0) {
+                return false;
+            }
+            for(byte mask : neighbours) {
+                if(mask != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
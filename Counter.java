@@ -1,19 +1,22 @@
+import java.util.concurrent.atomic.LongAdder;
+
 /** Provide a counter for a participant in the simulation.
  * This includes an identifying string and a count of how
  * many participants of this type currently exist within 
- * the simulation */
+ * the simulation. The count may be changed by several threads
+ * at once, e.g. during a parallel step */
 public class Counter
 {
     // A name for this type of simulation participant
     private final String name;
     // How many of this type exist in the simulation.
-    private int count;
+    private final LongAdder count;
 
     /** Provide a name for one of the simulation types.
      * @param name  A name, e.g. "Human" */
     public Counter(String name) {
         this.name = name;
-        count = 0;
+        count = new LongAdder();
     }
 
     /** @return The short description of this type */
@@ -23,16 +26,27 @@ public class Counter
 
     /** @return The current count for this type */
     public int getCount() {
-        return count;
+        return count.intValue();
     }
 
     /** Increment the current count by one */
     public void increment() {
-        count++;
+        count.increment();
+    }
+
+    /** Decrement the current count by one */
+    public void decrement() {
+        count.decrement();
+    }
+
+    /** Change the current count by the given amount.
+     * @param amount The amount to add, which may be negative */
+    public void add(int amount) {
+        count.add(amount);
     }
 
     /** Reset the current count to zero */
     public void reset() {
-        count = 0;
+        count.reset();
     }
 }
\ No newline at end of file
@@ -1,41 +1,176 @@
-import java.util.Collections;
-import java.util.LinkedList;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Random;
+import java.util.random.RandomGenerator;
 
 /** Represent a rectangular grid of field positions.
- * Each position is able to store a single person */
+ * Each position is able to store a single person.
+ * The neighbours of a position are numbered 0 to 7 (see adjacentRow and adjacentCol),
+ * so that the neighbourhood queries used on every step work on plain ints and
+ * create no Location objects.
+ *
+ * The field keeps a bitplane of the contagious positions, one bit per position, so the
+ * exposure of 64 positions is computed at a time with a few shifts and ORs.
+ *
+ * The positions that change during a step are recorded in a ChangeJournal (see
+ * getChanges), so whoever shows or counts the humans need only look at those.
+ *
+ * The field keeps a 64-bit Zobrist fingerprint of its state, the XOR of a random key per
+ * occupied position and the health of its human, so that runs can be compared without
+ * looking at the positions.
+ *
+ * The positions, with a byte per position of its occupied neighbours, are kept in a
+ * FieldStore and the humans in a HumanStore: on the heap, in chunks allocated only where
+ * there are humans, or in memory-mapped files for fields larger than the heap */
 public class Field
 {
-    // A random number generator for providing random locations.
-    private static final Random rand = Randomizer.getRandom();
+    // Atomic access to the fingerprint, which threads of a parallel step change at once.
+    private static final VarHandle FINGERPRINT;
+    static {
+        try {
+            FINGERPRINT = MethodHandles.lookup().findVarHandle(Field.class, "fingerprint", long.class);
+        }
+        catch(ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+    // The flags of a human that are part of the fingerprint.
+    private static final int HEALTH_FLAGS = HumanStore.INFECTED | HumanStore.VACCINATED | HumanStore.QUARANTINE;
+    // The row and column offsets of the eight neighbours of a position.
+    private static final int[] ROW_OFFSETS = { -1, -1, -1, 0, 0, 1, 1, 1 };
+    private static final int[] COL_OFFSETS = { -1, 0, 1, -1, 1, -1, 0, 1 };
+    // For each mask of directions and k from 0 to 7, the k-th lowest direction of the mask.
+    private static final byte[] SELECT = new byte[256 * 8];
+    static {
+        for(int mask = 0; mask < 256; mask++) {
+            int k = 0;
+            for(int d = 0; d < 8; d++) {
+                if((mask & (1 << d)) != 0) {
+                    SELECT[mask << 3 | k++] = (byte) d;
+                }
+            }
+        }
+    }
     // The depth and width of the field.
     private final int depth, width;
-    // Storage for the humans.
-    private final Human[][] field;
+    // Storage for the positions of the field.
+    private final FieldStore store;
+    // Storage for the state of the humans in the field.
+    private final HumanStore humans;
+    // The statistics of the humans in the field, kept up to date by the humans.
+    private final FieldStats stats;
+    // The number of longs of the bitplane for each row.
+    private final int wordsPerRow;
+    // The configuration of the humans in the field.
+    private SimulationConfig config = SimulationConfig.DEFAULT;
+    // The transitions the humans in the field are due to make, and the current step.
+    private final TimingWheel schedule = new TimingWheel();
+    // The counts of the humans by region, or null until they are first asked for.
+    private RegionCounts regionCounts;
+    // The step the counts by region were built at, or -1 if they are out of date.
+    private int regionStep = -1;
+    // The positions changed during the current step.
+    private final ChangeJournal changes;
+    // The fingerprint of the state of the field.
+    private volatile long fingerprint;
+    // The positions changed since the counts by region were built, or null until they are
+    // first asked for.
+    private ChangeJournal regionChanges;
 
     /** Represent a field of the given dimensions.
      * @param depth The depth of the field.
      * @param width The width of the field */
     public Field(int depth, int width) {
+        this(depth, width, new ChunkedFieldStore(depth, width), new ArrayHumanStore());
+    }
+
+    /** Represent a field of the given dimensions, kept in the given stores.
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     * @param store The empty store of the positions, for a field of this size.
+     * @param humans The store of the humans, which the store of the positions must use if it
+     *               keeps handles rather than humans */
+    public Field(int depth, int width, FieldStore store, HumanStore humans) {
         this.depth = depth;
         this.width = width;
-        field = new Human[depth][width];
+        this.store = store;
+        this.humans = humans;
+        stats = new FieldStats();
+        wordsPerRow = (width + 63) >>> 6;
+        changes = new ChangeJournal(depth, width);
+    }
+
+    /** Create a field of the given dimensions kept in memory-mapped files outside of the
+     * heap, both its positions and the state of its humans. The files are created in the
+     * given directory and deleted when the program exits.
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     * @param directory The directory of the files.
+     * @return The field
+     * @throws IOException If the files cannot be created */
+    public static Field mapped(int depth, int width, Path directory) throws IOException {
+        HumanStore humans = new MappedHumanStore(directory.resolve("humans.bin"));
+        return new Field(depth, width, new MappedFieldStore(depth, width, directory, humans), humans);
     }
 
-    /** Empty the field */
+    /** Empty the field, reset its statistics and move it back to step 0. The humans that
+     * were in it must not be used any more */
     public void clear() {
-        for(int row = 0; row < depth; row++) {
-            for(int col = 0; col < width; col++) {
-                field[row][col] = null;
-            }
+        stats.reset();
+        store.clear();
+        humans.clear();
+        schedule.clear(0);
+        regionStep = -1;
+        changes.markAll();
+        fingerprint = 0;
+    }
+
+    /** Start the journal of the changes of a new step. The simulator calls this before it
+     * changes anything in the step */
+    public void beginStep() {
+        if(regionChanges != null && regionStep != getStep()) {
+            // Nobody asked for the counts by region at the step just done.
+            regionChanges.addAll(changes);
         }
+        changes.clear();
+    }
+
+    /** Release the memory of the chunks that have become empty, if the storage of the
+     * positions allows it. This must not be called while humans are being updated, e.g.
+     * during a parallel step.
+     * @return The number of chunks released */
+    public int releaseEmptyChunks() {
+        return store.releaseEmpty();
+    }
+
+    /** @return The number of blocks of storage of the positions currently allocated,
+     *          e.g. chunks of 8 by 64 positions */
+    public int getChunkCount() {
+        return store.getBlockCount();
     }
 
     /** Clear the given location.
      * @param location The location to clear */
     public void clear(Location location) {
-        field[location.getRow()][location.getCol()] = null;
+        clear(location.getRow(), location.getCol());
+    }
+
+    /** Clear the given location.
+     * @param row Row coordinate of the location.
+     * @param col Column coordinate of the location */
+    public void clear(int row, int col) {
+        Human occupant = store.get(row, col);
+        if(occupant != null) {
+            // Its flags are still those it had here.
+            toggleFingerprint(row, col, occupant);
+            store.set(row, col, null);
+            store.setContagious(row, col, false);
+            store.setOccupiedAround(row, col, false);
+            changes.mark(row, col);
+        }
     }
 
     /** Place a person at the given location.
@@ -44,7 +179,49 @@ public class Field
      * @param row Row coordinate of the location.
      * @param col Column coordinate of the location */
     public void place(Human person, int row, int col) {
-        place(person, new Location(row, col));
+        if(person == null) {
+            clear(row, col);
+            return;
+        }
+        Human occupant = store.get(row, col);
+        boolean occupied = occupant != null;
+        if(occupied) {
+            toggleFingerprint(row, col, occupant);
+        }
+        store.set(row, col, person);
+        store.setContagious(row, col, isContagious(person));
+        if(!occupied) {
+            store.setOccupiedAround(row, col, true);
+        }
+        changes.mark(row, col);
+        toggleFingerprint(row, col, person);
+    }
+
+    /** Tell the field that the state of the human at the given position has changed,
+     * e.g. that it got infected, went into quarantine or was vaccinated.
+     * @param row Row coordinate of the human.
+     * @param col Column coordinate of the human */
+    public void humanChanged(int row, int col) {
+        Human human = store.get(row, col);
+        if(human != null) {
+            store.setContagious(row, col, isContagious(human));
+            changes.mark(row, col);
+        }
+    }
+
+    /** Tell the field that the flags of the human at the given position have changed,
+     * while the flags it had before are still known, so the fingerprint can follow. This
+     * must be called for every change of the health flags of a human in the field.
+     * @param row Row coordinate of the human.
+     * @param col Column coordinate of the human.
+     * @param before The flags of the human before the change (see HumanStore).
+     * @param after The flags of the human after the change */
+    public void flagsChanged(int row, int col, int before, int after) {
+        if(((before ^ after) & HEALTH_FLAGS) != 0) {
+            int position = row * width + col;
+            FINGERPRINT.getAndBitwiseXor(this, fingerprintKey(position, 1 | before & HEALTH_FLAGS)
+                    ^ fingerprintKey(position, 1 | after & HEALTH_FLAGS));
+        }
     }
 
     /** Place a person at the given location.
@@ -53,7 +230,7 @@ public class Field
      * @param location Where to place the animal.
      */
     public void place(Human person, Location location) {
-        field[location.getRow()][location.getCol()] = person;
+        place(person, location.getRow(), location.getCol());
     }
 
     /** Return the human at the given location, if any.
@@ -68,7 +245,7 @@ public class Field
      * @param col The desired column.
      * @return The human at the given location, or null if there is none */
     public Human getObjectAt(int row, int col) {
-        return field[row][col];
+        return store.get(row, col);
     }
 
     /** Generate a random location that is adjacent to the given location, or is the same location.
@@ -76,8 +253,14 @@ public class Field
      * @param location The location from which to generate an adjacency.
      * @return A valid location within the grid area */
     public Location randomAdjacentLocation(Location location) {
-        List<Location> adjacent = adjacentLocations(location);
-        return adjacent.get(0);
+        int row = location.getRow();
+        int col = location.getCol();
+        int direction = randomDirection(adjacentMask(row, col, false), Randomizer.getRandom());
+        if(direction < 0) {
+            // A field of a single position has no neighbours.
+            return location;
+        }
+        return new Location(adjacentRow(row, direction), adjacentCol(col, direction));
     }
 
     /** Check if there is an infected person at one of the four adjacent locations.
@@ -85,40 +268,63 @@ public class Field
      * @param loc the location of the current human
      * @return true if there is infected human at one of the four adjacent locations */
     public boolean infection(Location loc){
-        int r = loc.getRow();
-        int c = loc.getCol();
-        boolean right = false;
-        boolean left = false;
-        boolean  up = false;
-        boolean down = false;
-
-        if(c+1 < width) //check on the right
-            right = getObjectAt(r, c + 1) != null && getObjectAt(r, c + 1).isInfected() && !getObjectAt(r, c + 1).isQuarantine();
+        return infection(loc.getRow(), loc.getCol());
+    }
 
-        if(c-1 >= 0) //check on the left
-            left = getObjectAt(r, c - 1) != null && getObjectAt(r, c - 1).isInfected() && !getObjectAt(r, c - 1).isQuarantine() ;
+    /** Check if there is an infected person, not in quarantine, at one of the four adjacent locations.
+     * @param r The row of the current human.
+     * @param c The column of the current human.
+     * @return true if there is infected human at one of the four adjacent locations */
+    public boolean infection(int r, int c){
+        return (exposure(r, c >>> 6) & (1L << c)) != 0;
+    }
 
-        if(r-1 >= 0) //check above
-            up = getObjectAt(r - 1, c) != null && getObjectAt(r - 1, c).isInfected() && !getObjectAt(r - 1, c).isQuarantine();
+    /** Check whether the human at a position can infect its neighbours.
+     * @param row The row of the position.
+     * @param col The column of the position.
+     * @return true if there is an infected human, not in quarantine, at the position */
+    public boolean isContagious(int row, int col) {
+        return (store.contagiousWord(row, col >>> 6) & (1L << col)) != 0;
+    }
 
-        if(r+1 < depth)  //check below
-            down = getObjectAt(r + 1, c) != null && getObjectAt(r + 1, c).isInfected() && !getObjectAt(r + 1, c).isQuarantine();
+    /** Compute which of 64 positions of a row have a contagious North, South, East or West neighbour.
+     * @param row The row of the positions.
+     * @param word Which 64 positions of the row: columns 64 * word to 64 * word + 63.
+     * @return A mask with bit i set if column 64 * word + i is exposed to the virus */
+    public long exposure(int row, int word) {
+        long here = store.contagiousWord(row, word);
+        // A neighbour to the west moves one column east, and the other way round.
+        long exposed = (here << 1) | (here >>> 1);
+        if(word > 0) {
+            exposed |= store.contagiousWord(row, word - 1) >>> 63;
+        }
+        if(word + 1 < wordsPerRow) {
+            exposed |= store.contagiousWord(row, word + 1) << 63;
+        }
+        if(row > 0) {
+            exposed |= store.contagiousWord(row - 1, word);
+        }
+        if(row + 1 < depth) {
+            exposed |= store.contagiousWord(row + 1, word);
+        }
+        return exposed;
+    }
 
-        return right || left || up || down;
+    /** Compute which positions of a whole row have a contagious North, South, East or West neighbour.
+     * @param row The row of the positions.
+     * @param exposed Filled with the masks of exposure(row, word) for every word of the row.
+     *                It must hold at least (width + 63) / 64 longs */
+    public void exposureRow(int row, long[] exposed) {
+        for(int word = 0; word < wordsPerRow; word++) {
+            exposed[word] = exposure(row, word);
+        }
     }
 
     /** Get a shuffled list of the free adjacent locations.
      * @param location Get locations adjacent to this.
      * @return A list of free adjacent locations */
     public List<Location> getFreeAdjacentLocations(Location location) {
-        List<Location> free = new LinkedList<>();
-        List<Location> adjacent = adjacentLocations(location);
-        for(Location next : adjacent) {
-            if(getObjectAt(next) == null) {
-                free.add(next);
-            }
-        }
-        return free;
+        return toLocations(location, adjacentMask(location.getRow(), location.getCol(), true));
     }
 
     /** Try to find a free location that is adjacent to the given location. If there is none, return null.
@@ -126,14 +332,28 @@ public class Field
      * @param location The location from which to generate an adjacency.
      * @return A valid location within the grid area */
     public Location freeAdjacentLocation(Location location) {
-        // The available free ones.
-        List<Location> free = getFreeAdjacentLocations(location);
-        if(free.size() > 0) {
-            return free.get(0);
-        }
-        else {
+        int row = location.getRow();
+        int col = location.getCol();
+        int direction = freeAdjacentDirection(row, col, Randomizer.getRandom());
+        if(direction < 0) {
             return null;
         }
+        return new Location(adjacentRow(row, direction), adjacentCol(col, direction));
+    }
+
+    /** Pick one of the free positions adjacent to the given one at random.
+     * This is the allocation free form of freeAdjacentLocation.
+     * @param row The row of the position.
+     * @param col The column of the position.
+     * @param random The random generator to pick with.
+     * @return The direction (0 to 7) of a free neighbour, or -1 if there is none */
+    public int freeAdjacentDirection(int row, int col, RandomGenerator random) {
+        int mask = adjacentMask(row, col, true);
+        if(mask == 0) {
+            stats.crowdedLookup();
+            return -1;
+        }
+        return randomDirection(mask, random);
     }
 
     /** Return a shuffled list of locations adjacent to the given one.
@@ -142,30 +362,164 @@ public class Field
      * @return A list of locations adjacent to that given */
     public List<Location> adjacentLocations(Location location) {
         assert location != null : "Null location passed to adjacentLocations";
-        // The list of locations to be returned.
-        List<Location> locations = new LinkedList<>();
-        if(location != null) {
-            int row = location.getRow();
-            int col = location.getCol();
-            for(int roffset = -1; roffset <= 1; roffset++) {
-                int nextRow = row + roffset;
-                if(nextRow >= 0 && nextRow < depth) {
-                    for(int coffset = -1; coffset <= 1; coffset++) {
-                        int nextCol = col + coffset;
-                        // Exclude invalid locations and the original location.
-                        if(nextCol >= 0 && nextCol < width && (roffset != 0 || coffset != 0)) {
-                            locations.add(new Location(nextRow, nextCol));
-                        }
-                    }
+        return toLocations(location, adjacentMask(location.getRow(), location.getCol(), false));
+    }
+
+    /** @param row The row of a position.
+     * @param direction The direction (0 to 7) of one of its neighbours.
+     * @return The row of that neighbour */
+    public static int adjacentRow(int row, int direction) {
+        return row + ROW_OFFSETS[direction];
+    }
+
+    /** @param col The column of a position.
+     * @param direction The direction (0 to 7) of one of its neighbours.
+     * @return The column of that neighbour */
+    public static int adjacentCol(int col, int direction) {
+        return col + COL_OFFSETS[direction];
+    }
+
+    /** Find the neighbours of a position that lie within the grid.
+     * @param row The row of the position.
+     * @param col The column of the position.
+     * @param freeOnly Whether to leave out the neighbours that are occupied.
+     * @return A mask with bit d set if the neighbour in direction d qualifies */
+    private int adjacentMask(int row, int col, boolean freeOnly) {
+        int mask = 0xFF;
+        if(row == 0 || row == depth - 1 || col == 0 || col == width - 1) {
+            mask = 0;
+            for(int d = 0; d < 8; d++) {
+                int nextRow = row + ROW_OFFSETS[d];
+                int nextCol = col + COL_OFFSETS[d];
+                if(nextRow >= 0 && nextRow < depth && nextCol >= 0 && nextCol < width) {
+                    mask |= 1 << d;
                 }
             }
-            // Shuffle the list. Several other methods rely on the list
-            // being in a random order.
-            Collections.shuffle(locations, rand);
+        }
+        return freeOnly ? mask & ~store.occupiedNeighbours(row, col) : mask;
+    }
+
+    /** Pick one of the directions of a mask with equal probability.
+     * @param mask A mask of directions, as made by adjacentMask.
+     * @param random The random generator to pick with.
+     * @return One of the directions set in the mask, or -1 if it is empty */
+    private static int randomDirection(int mask, RandomGenerator random) {
+        if(mask == 0) {
+            return -1;
+        }
+        return SELECT[mask << 3 | random.nextInt(Integer.bitCount(mask))];
+    }
+
+    /** Turn a mask of directions into a shuffled list of locations.
+     * @param location The position the directions are relative to.
+     * @param mask A mask of directions, as made by adjacentMask.
+     * @return The locations in the directions of the mask, in random order */
+    private List<Location> toLocations(Location location, int mask) {
+        List<Location> locations = new ArrayList<>(Integer.bitCount(mask));
+        for(int d = 0; d < 8; d++) {
+            if((mask & (1 << d)) != 0) {
+                locations.add(new Location(adjacentRow(location.getRow(), d), adjacentCol(location.getCol(), d)));
+            }
+        }
+        // Shuffle the list. Several other methods rely on the list
+        // being in a random order.
+        RandomGenerator rand = Randomizer.getRandom();
+        for(int i = locations.size() - 1; i > 0; i--) {
+            locations.set(i, locations.set(rand.nextInt(i + 1), locations.get(i)));
         }
         return locations;
     }
 
+    /** Add the key of a human at a position to the fingerprint, or take it out, which is the
+     * same: when the human arrives at the position or leaves it.
+     * @param row The row of the position.
+     * @param col The column of the position.
+     * @param human The human, with the flags it has at the position */
+    private void toggleFingerprint(int row, int col, Human human) {
+        int handle = human.getHandle();
+        if(handle >= 0) {
+            long key = fingerprintKey(row * width + col, 1 | humans.getFlags(handle) & HEALTH_FLAGS);
+            FINGERPRINT.getAndBitwiseXor(this, key);
+        }
+    }
+
+    /** @param position A position, as row * width + col.
+     * @param state The state of the position: 0 if it is empty, or 1 with the health flags
+     *              of its human.
+     * @return The key of the position in that state, 0 for an empty position */
+    static long fingerprintKey(int position, int state) {
+        return state == 0 ? 0 : Randomizer.mix((long) position << 4 | state);
+    }
+
+    /** @param human The occupant of a position, or null.
+     * @return true if the occupant can infect its neighbours */
+    private static boolean isContagious(Human human) {
+        return human != null && human.isInfected() && !human.isQuarantine();
+    }
+
+    /** @return The store of the state of the humans in the field */
+    public HumanStore getHumanStore() {
+        return humans;
+    }
+
+    /** @return The transitions the humans in the field are due to make at later steps */
+    public TimingWheel getSchedule() {
+        return schedule;
+    }
+
+    /** Count the humans in any rectangle of the field, e.g. per district. The counts are
+     * brought up to date once per step, the first time they are asked for, from the rows
+     * that changed since, so this must be called between steps, e.g. from a SimulatorObserver.
+     * @return The counts of the humans in the field at the current step */
+    public RegionCounts getRegionCounts() {
+        if(regionCounts == null) {
+            regionCounts = new RegionCounts(depth, width);
+            regionChanges = new ChangeJournal(depth, width);
+        }
+        if(regionStep != getStep()) {
+            regionChanges.addAll(changes);
+            regionCounts.update(this, regionChanges);
+            regionChanges.clear();
+            regionStep = getStep();
+        }
+        return regionCounts;
+    }
+
+    /** @return The fingerprint of the state of the field: which positions are occupied, and
+     *          whether their humans are infected, vaccinated and in quarantine */
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    /** @return The positions changed during the current step, or since the field was last
+     *          emptied. They must only be looked at between steps, e.g. from a
+     *          SimulatorObserver */
+    public ChangeJournal getChanges() {
+        return changes;
+    }
+
+    /** @return The current step of the humans in the field, from which their ages follow */
+    public int getStep() {
+        return schedule.getStep();
+    }
+
+    /** @return The configuration of the humans in the field */
+    public SimulationConfig getConfig() {
+        return config;
+    }
+
+    /** Choose the configuration of the humans in the field, e.g. the configuration of the
+     * simulation the field belongs to. It must not be changed while humans are being updated.
+     * @param config The configuration */
+    public void setConfig(SimulationConfig config) {
+        this.config = config;
+    }
+
+    /** @return The statistics of the humans in the field */
+    public FieldStats getStats() {
+        return stats;
+    }
+
     /** @return The depth of the field */
     public int getDepth() {
         return depth;
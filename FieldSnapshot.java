@@ -0,0 +1,226 @@
+import java.util.Arrays;
+
+/** An immutable picture of a field at one step: the color of every location and the
+ * statistics of the field. A snapshot can be handed from the thread running the
+ * simulation to the thread displaying it, while the simulation carries on.
+ *
+ * A snapshot is either complete, holding every location, or holds only the locations that
+ * changed since an earlier snapshot (see ChangeJournal), so that it can be taken and shown
+ * in time proportional to the changes. The locations held are numbered from 0 to
+ * getPositionCount() - 1 */
+public class FieldSnapshot
+{
+    // A snapshot of the changes holds every location once more than one in this many changed.
+    private static final int COMPLETE_FRACTION = 4;
+
+    // The step the snapshot was taken at.
+    private final int step;
+    // The depth and width of the field.
+    private final int depth, width;
+    // The locations held, as row * width + col in increasing order, or null if the
+    // snapshot is complete.
+    private final int[] positions;
+    // The packed RGB color of each location held, or 0 for an empty location. A complete
+    // snapshot holds the locations row after row.
+    private final int[] colors;
+    // The statistics of the field.
+    private final int population, infected, vaccinated, dead;
+
+    /** Take a snapshot of a field. The field must not change while this runs.
+     * @param step The step the field has reached.
+     * @param field The field to take a snapshot of */
+    public FieldSnapshot(int step, Field field) {
+        this.step = step;
+        depth = field.getDepth();
+        width = field.getWidth();
+        positions = null;
+        colors = new int[depth * width];
+        for(int row = 0; row < depth; row++) {
+            for(int col = 0; col < width; col++) {
+                Human human = field.getObjectAt(row, col);
+                if(human != null) {
+                    colors[row * width + col] = human.getHumanColor().getRGB();
+                }
+            }
+        }
+        FieldStats stats = field.getStats();
+        population = stats.getPopulation();
+        infected = stats.infectedCount();
+        vaccinated = stats.vaccinatedCount();
+        dead = stats.deadCount();
+    }
+
+    /** Take a snapshot of the locations of a field that changed, e.g. since the last
+     * snapshot. If more than a quarter of the field changed the snapshot is complete instead. The field
+     * must not change while this runs.
+     * @param step The step the field has reached.
+     * @param field The field to take a snapshot of.
+     * @param changes The locations of the field to take */
+    public FieldSnapshot(int step, Field field, ChangeJournal changes) {
+        this.step = step;
+        depth = field.getDepth();
+        width = field.getWidth();
+        int size = changes.isAll() ? depth * width : changes.size();
+        if(size > depth * width / COMPLETE_FRACTION) {
+            positions = null;
+            colors = new int[depth * width];
+        }
+        else {
+            positions = new int[size];
+            changes.getPositions(positions);
+            colors = new int[size];
+        }
+        for(int i = 0; i < colors.length; i++) {
+            int position = positions != null ? positions[i] : i;
+            Human human = field.getObjectAt(position / width, position % width);
+            if(human != null) {
+                colors[i] = human.getHumanColor().getRGB();
+            }
+        }
+        FieldStats stats = field.getStats();
+        population = stats.getPopulation();
+        infected = stats.infectedCount();
+        vaccinated = stats.vaccinatedCount();
+        dead = stats.deadCount();
+    }
+
+    /** Make a snapshot of a field that is not at hand, e.g. one played back from a trace.
+     * @param step The step of the snapshot.
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     * @param colors The packed RGB color of each location, row after row, or 0 for an empty
+     *               location. The snapshot keeps the array, which must not change afterwards.
+     * @param population The number of humans in the field.
+     * @param infected The number of infected humans in the field.
+     * @param vaccinated The number of vaccinated humans in the field.
+     * @param dead The number of humans that died so far */
+    FieldSnapshot(int step, int depth, int width, int[] colors, int population, int infected,
+                  int vaccinated, int dead) {
+        this(step, depth, width, null, colors, population, infected, vaccinated, dead);
+    }
+
+    /** Make a snapshot from its parts.
+     * @param positions The locations held, in increasing order, or null for every location */
+    private FieldSnapshot(int step, int depth, int width, int[] positions, int[] colors, int population,
+                          int infected, int vaccinated, int dead) {
+        this.step = step;
+        this.depth = depth;
+        this.width = width;
+        this.positions = positions;
+        this.colors = colors;
+        this.population = population;
+        this.infected = infected;
+        this.vaccinated = vaccinated;
+        this.dead = dead;
+    }
+
+    /** @return The step the snapshot was taken at */
+    public int getStep() {
+        return step;
+    }
+
+    /** @return The depth of the field */
+    public int getDepth() {
+        return depth;
+    }
+
+    /** @return The width of the field */
+    public int getWidth() {
+        return width;
+    }
+
+    /** Combine this snapshot with an earlier one that has not been shown, so that showing
+     * the result brings a display showing what came before the earlier one up to date.
+     * @param earlier A snapshot of the same field, taken before this one.
+     * @return A snapshot of the state of this one, holding the locations of both */
+    public FieldSnapshot combine(FieldSnapshot earlier) {
+        if(positions == null) {
+            return this;
+        }
+        if(earlier.positions == null) {
+            int[] all = earlier.colors.clone();
+            for(int i = 0; i < positions.length; i++) {
+                all[positions[i]] = colors[i];
+            }
+            return new FieldSnapshot(step, depth, width, null, all, population, infected, vaccinated, dead);
+        }
+        // Merge the two sorted lists of locations, this snapshot's colors first.
+        int[] mergedPositions = new int[positions.length + earlier.positions.length];
+        int[] mergedColors = new int[mergedPositions.length];
+        int size = 0, i = 0, j = 0;
+        while(i < positions.length || j < earlier.positions.length) {
+            int mine = i < positions.length ? positions[i] : Integer.MAX_VALUE;
+            int theirs = j < earlier.positions.length ? earlier.positions[j] : Integer.MAX_VALUE;
+            if(mine <= theirs) {
+                mergedPositions[size] = mine;
+                mergedColors[size++] = colors[i++];
+                if(mine == theirs) {
+                    j++;
+                }
+            }
+            else {
+                mergedPositions[size] = theirs;
+                mergedColors[size++] = earlier.colors[j++];
+            }
+        }
+        return new FieldSnapshot(step, depth, width, Arrays.copyOf(mergedPositions, size),
+                Arrays.copyOf(mergedColors, size), population, infected, vaccinated, dead);
+    }
+
+    /** @return true if the snapshot holds every location of the field */
+    public boolean isComplete() {
+        return positions == null;
+    }
+
+    /** @return The number of locations held */
+    public int getPositionCount() {
+        return colors.length;
+    }
+
+    /** @param i The number of a location held.
+     * @return The location, as row * width + col */
+    public int getPosition(int i) {
+        return positions != null ? positions[i] : i;
+    }
+
+    /** @param i The number of a location held.
+     * @return The packed RGB color of the human at the location, or 0 if it was empty */
+    public int getPositionColor(int i) {
+        return colors[i];
+    }
+
+    /** @param row The row of a location held.
+     * @param col The column of a location held.
+     * @return The packed RGB color of the human at the location, or 0 if it was empty */
+    public int getColor(int row, int col) {
+        int position = row * width + col;
+        if(positions == null) {
+            return colors[position];
+        }
+        int i = Arrays.binarySearch(positions, position);
+        if(i < 0) {
+            throw new IllegalArgumentException("The snapshot does not hold " + row + "," + col);
+        }
+        return colors[i];
+    }
+
+    /** @return The number of humans in the field */
+    public int getPopulation() {
+        return population;
+    }
+
+    /** @return The number of infected humans in the field */
+    public int getInfected() {
+        return infected;
+    }
+
+    /** @return The number of vaccinated humans in the field */
+    public int getVaccinated() {
+        return vaccinated;
+    }
+
+    /** @return The number of humans that died so far */
+    public int getDead() {
+        return dead;
+    }
+}
@@ -1,162 +1,198 @@
-import java.util.HashMap;
-
 /** This class collects and provides some statistical data on the state
- * of a field. It is flexible: it will create and maintain a counter
- * for any class of object that is found within the field */
+ * of a field. The counters are kept up to date by the humans themselves as
+ * they are born, get infected, recover, get vaccinated and die, so reading
+ * a statistic takes the same time however big the field is */
 public class FieldStats
 {
-    // Counters for each type of entity (human etc.) in the simulation.
-    private HashMap<Class, Counter> counters;
-    // Whether the counters are currently up to date.
-    private boolean countsValid;
-    //counts the dead people.
-    public int count;
+    // The humans currently in the field.
+    private final Counter population;
+    // The humans currently infected.
+    private final Counter infected;
+    // The humans currently vaccinated.
+    private final Counter vaccinated;
+    // The infected humans currently in quarantine.
+    private final Counter quarantined;
+    // The humans born since the last reset.
+    private final Counter births;
+    // The humans that died since the last reset, of any cause.
+    private final Counter deaths;
+    // The infections since the last reset.
+    private final Counter infections;
+    // The searches for a free neighbouring position that found none, since the last reset.
+    private final Counter crowded;
 
     /** Construct a FieldStats object */
     public FieldStats() {
-        // Set up a collection for counters
-        counters = new HashMap<>();
-        countsValid = true;
-        count = 0;
+        population = new Counter("Population");
+        infected = new Counter("Infected");
+        vaccinated = new Counter("Vaccinated");
+        quarantined = new Counter("Quarantined");
+        births = new Counter("Births");
+        deaths = new Counter("Deaths");
+        infections = new Counter("Infections");
+        crowded = new Counter("Crowded");
     }
 
     /** Get details of what is in the field.
      * @return A string describing what is in the field */
-    public String getPopulationDetails(Field field) {
-        StringBuffer buffer = new StringBuffer();
-        if(!countsValid) {
-            generateCounts(field);
-        }
-        for(Class key : counters.keySet()) {
-            Counter info = counters.get(key);
-            buffer.append(info.getCount());
-            buffer.append(' ');
-        }
-        return buffer.toString();
+    public String getPopulationDetails() {
+        return population.getCount() + " ";
     }
 
-    /** Invalidate the current set of statistics; reset all counts to zero */
+    /** Reset all counts to zero, e.g. when the field is emptied */
     public void reset() {
-        countsValid = false;
-        for(Class key : counters.keySet()) {
-            Counter count = counters.get(key);
-            count.reset();
-        }
+        population.reset();
+        infected.reset();
+        vaccinated.reset();
+        quarantined.reset();
+        births.reset();
+        deaths.reset();
+        infections.reset();
+        crowded.reset();
     }
 
-    /** Increment the count for class of human.
-     * @param human The class to increment */
-    public void incrementCount(Class human) {
-        Counter count = counters.get(human);
-        if(count == null) {
-            // We do not have a counter for this species yet.
-            // Create one.
-            count = new Counter(human.getName());
-            counters.put(human, count);
-        }
+    /** Add births and deaths that happened before the field was last filled,
+     * e.g. when a simulation is restored from a Checkpoint.
+     * @param bornBefore The number of humans born before.
+     * @param diedBefore The number of humans that died before */
+    public void addHistory(int bornBefore, int diedBefore) {
+        births.add(bornBefore);
+        deaths.add(diedBefore);
+    }
 
-        count.increment();
+    /** Count a human that has been placed in the field.
+     * @param human The human, with its initial state */
+    public void humanAdded(Human human) {
+        population.increment();
+        if(human.isInfected()) {
+            infected.increment();
+            if(human.isQuarantine()) {
+                quarantined.increment();
+            }
+        }
+        if(human.isVaccinated()) {
+            vaccinated.increment();
+        }
     }
 
-    /** Indicate that a human count has been completed */
-    public void countFinished() {
-        countsValid = true;
+    /** Count a human that has died and left the field.
+     * @param human The human, with the state it had when it died */
+    public void humanDied(Human human) {
+        humanLeft(human);
+        deaths.increment();
     }
 
-    /** Determine whether the simulation is still viable. I.e., should it continue to run.
-     * @return true If there is more than one species alive */
-    public boolean isViable(Field field) {
-        // How many counts are non-zero.
-        int nonZero = 0;
-        if(!countsValid) {
-            generateCounts(field);
-        }
-        for(Class key : counters.keySet()) {
-            Counter info = counters.get(key);
-            if(info.getCount() > 0) {
-                nonZero++;
+    /** Count a human that has left the field alive, e.g. for a part of the field kept by
+     * another process.
+     * @param human The human, with the state it had when it left */
+    public void humanLeft(Human human) {
+        population.decrement();
+        if(human.isInfected()) {
+            infected.decrement();
+            if(human.isQuarantine()) {
+                quarantined.decrement();
             }
         }
-        return nonZero > 1;
-    }
-
-    /** Generate counts of the number of human. These are not kept up to date as human
-     * are placed in the field, but only when a request is made for the information.
-     * @param field the field to generate the stats for */
-    private void generateCounts(Field field) {
-        reset();
-        for(int row = 0; row < field.getDepth(); row++) {
-            for(int col = 0; col < field.getWidth(); col++) {
-                Object human = field.getObjectAt(row, col);
-                if(human != null) {
-                    incrementCount(human.getClass());
-                }
-            }
+        if(human.isVaccinated()) {
+            vaccinated.decrement();
         }
-        countsValid = true;
-    }
-
-    /** Count the number of infected people shown in the field
-     * @param field the field to generate the stats for
-     * @return the number of the infected in the field */
-    public int infectedCount(Field field){
-        int count = 0;
-        reset();
-        for(int row = 0; row < field.getDepth(); row++) {
-            for(int col = 0; col < field.getWidth(); col++) {
-                Human human = field.getObjectAt(row, col);
-                if(human != null) {
-                    if(human.isInfected()){
-                        count++;
-                    }
-                }
-            }
-        }
-        countsValid = true;
-        return count;
-    }
-
-    /** Count the number of vaccinated people shown in the field
-     * @param field the field to generate the stats for
-     * @return the number of the infected in the field */
-    public int vaccinatedCount(Field field){
-        int count = 0;
-        reset();
-        for(int row = 0; row < field.getDepth(); row++) {
-            for(int col = 0; col < field.getWidth(); col++) {
-                Human human = field.getObjectAt(row, col);
-                if(human != null) {
-                    if(human.isVaccinated()){
-                        count++;
-                    }
-                }
-            }
+    }
+
+    /** Count a human that died before it could be placed in the field, e.g. one arriving
+     * from another part of the field that found no free position */
+    public void humanLost() {
+        deaths.increment();
+    }
+
+    /** Count a human that has been born */
+    public void humanBorn() {
+        births.increment();
+    }
+
+    /** Count a human that got infected or recovered.
+     * @param nowInfected true if the human got infected, false if it recovered */
+    public void infectionChanged(boolean nowInfected) {
+        change(infected, nowInfected);
+        if(nowInfected) {
+            infections.increment();
         }
-        countsValid = true;
-        return count;
     }
 
-    /** Count the number of dead people until this moment of the simulation
-     * @param field the field to generate the stats for
-     * @return the number of the dead until this moment */
-    public int deadCount(Field field){
-        reset();
-        if(vaccinatedCount(field) == 0){
-            return 0;
+    /** Count a search for a free neighbouring position that found none, e.g. a human
+     * that could not move or could not give birth */
+    public void crowdedLookup() {
+        crowded.increment();
+    }
+
+    /** Count a human that got vaccinated, or lost its vaccination.
+     * @param nowVaccinated true if the human got vaccinated */
+    public void vaccinationChanged(boolean nowVaccinated) {
+        change(vaccinated, nowVaccinated);
+    }
+
+    /** Count an infected human that went into quarantine or left it.
+     * @param nowQuarantined true if the human is now an infected human in quarantine */
+    public void quarantineChanged(boolean nowQuarantined) {
+        change(quarantined, nowQuarantined);
+    }
+
+    /** @return The number of humans in the field */
+    public int getPopulation() {
+        return population.getCount();
+    }
+
+    /** @return The number of infected humans in the field */
+    public int infectedCount() {
+        return infected.getCount();
+    }
+
+    /** @return The number of vaccinated humans in the field */
+    public int vaccinatedCount() {
+        return vaccinated.getCount();
+    }
+
+    /** @return The number of infected humans in quarantine */
+    public int quarantinedCount() {
+        return quarantined.getCount();
+    }
+
+    /** @return The number of humans born since the last reset */
+    public int birthCount() {
+        return births.getCount();
+    }
+
+    /** @return The number of humans that died since the last reset */
+    public int deadCount() {
+        return deaths.getCount();
+    }
+
+    /** @return The number of infections since the last reset, not counting the
+     *          humans that were infected when they were placed in the field */
+    public int infectionCount() {
+        return infections.getCount();
+    }
+
+    /** @return The number of searches for a free neighbouring position that found none
+     *          since the last reset */
+    public int crowdedCount() {
+        return crowded.getCount();
+    }
+
+    /** Determine whether the simulation is still viable. I.e., should it continue to run.
+     * @return true If there are humans alive and the epidemic has not died out */
+    public boolean isViable() {
+        return population.getCount() > 0 && infected.getCount() > 0;
+    }
+
+    /** Move a counter up or down by one.
+     * @param counter The counter to change.
+     * @param up true to increment it, false to decrement it */
+    private static void change(Counter counter, boolean up) {
+        if(up) {
+            counter.increment();
         }
-        for(int row = 0; row < field.getDepth(); row++) {
-            for(int col = 0; col < field.getWidth(); col++) {
-                Human human = field.getObjectAt(row, col);
-                if(human != null) {
-                    if(human.getAge() == 80){
-                        count++;
-                    }
-                }
-            }
+        else {
+            counter.decrement();
         }
-        countsValid = true;
-        return count;
     }
-
 }
-
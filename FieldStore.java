@@ -0,0 +1,65 @@
+/** Storage for the positions of a Field: the human at each position, the bitplane of the
+ * contagious positions, 64 positions of a row to a long, and for each position a mask of
+ * its occupied neighbours. The masks are 0 wherever no neighbour is occupied, so a store
+ * only needs memory for them around the humans. The field decides what is
+ * stored; a store only decides where, e.g. in chunks on the heap (ChunkedFieldStore) or
+ * in a memory-mapped file (MappedFieldStore).
+ *
+ * Humans on different threads may use a store at the same time, as long as they do not
+ * use the same position. Words of the bitplane may be shared, so they must be updated
+ * atomically */
+public interface FieldStore
+{
+    /** @param row The row of a position.
+     * @param col The column of a position.
+     * @return The human at the position, or null if there is none */
+    Human get(int row, int col);
+
+    /** @param row The row of a position.
+     * @param col The column of a position.
+     * @return true if there is a human at the position */
+    boolean isOccupied(int row, int col);
+
+    /** Put a human at a position, or take away the one there.
+     * @param row The row of the position.
+     * @param col The column of the position.
+     * @param human The human, or null to leave the position empty */
+    void set(int row, int col, Human human);
+
+    /** Set or clear the bit of a position in the bitplane of the contagious positions.
+     * @param row The row of the position.
+     * @param col The column of the position.
+     * @param value The new value of the bit */
+    void setContagious(int row, int col, boolean value);
+
+    /** @param row A row of the field.
+     * @param word Which 64 positions of the row: columns 64 * word to 64 * word + 63.
+     * @return The word of the bitplane of the contagious positions for those positions */
+    long contagiousWord(int row, int word);
+
+    /** @param row The row of a position.
+     * @param col The column of a position.
+     * @return The mask of the occupied neighbours of the position: bit d is set if its
+     *         neighbour in direction d (see Field.adjacentRow) holds a human */
+    int occupiedNeighbours(int row, int col);
+
+    /** Tell the neighbours of a position that it has been taken or freed: set or clear bit
+     * 7 - d of the mask of its neighbour in direction d, which sees the position in the
+     * opposite direction. The bits must be the opposite of the new value, so a store may
+     * just flip them.
+     * @param row The row of the position.
+     * @param col The column of the position.
+     * @param value Whether the position holds a human from now on */
+    void setOccupiedAround(int row, int col, boolean value);
+
+    /** Empty every position, and clear every mask of occupied neighbours */
+    void clear();
+
+    /** Release the memory of the parts of the store that have become empty, if the store
+     * is able to. This must not be called while humans are being updated.
+     * @return The number of blocks released */
+    int releaseEmpty();
+
+    /** @return The number of blocks of storage currently allocated */
+    int getBlockCount();
+}
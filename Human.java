@@ -1,126 +1,299 @@
 import java.awt.*;
 import java.util.List;
-import java.util.Random;
+import java.util.random.RandomGenerator;
 
 /** A simple model of a human.
  * humans age, move, breed, get infected, get vaccinated, be in quarantine and die */
 public class Human
 {
-    // Characteristics shared by all humans (class variables).
-
-    // The age at which a human can start to breed.
-    private static final int BREEDING_AGE = 27;
-    // The age at which a human stops breeding.
-    private static final int MAX_BREEDING_AGE = 40;
-    // The age to which a human can live.
-    private static final int MAX_AGE = 80;
-    // The likelihood of a human breeding.
-    private static final double BREEDING_PROBABILITY = 0.23;
-    // The maximum number of births.
-    private static final int MAX_LITTER_SIZE = 1;
-    // The probability of a human's infection.
-    private static final double INFECTING_PROBABILITY = 1;
-    // The probability of a human's start simulation infected.
-    private static final double INFECTED_PROBABILITY = 0.7;
-    // The probability of someone getting vaccinated.
-    private static final double VACCINATING_PROBABILITY = 0.05;
-    // The probability an infected person get in quarantine.
-    private static final double QUARANTINE_PROBABILITY = 0.2;
-    // The probability of someone vaccinated getting infected.
-    private static final double UNSAFE_PROBABILITY = 0.1;
-    // The likelihood of an infected human get deceased;
-    private static final double DEATH_PROBABILITY = 0.065;
-    // A shared random number generator to control breeding.
-    private static final Random rand = Randomizer.getRandom();
+    // Characteristics shared by all humans, such as the probability of an infected human
+    // dying, are in the SimulationConfig of their field.
+
+    // The colors a human appears in on the map, by the color bits of its flags.
+    private static final Color[] COLORS = { Color.BLUE, Color.RED, Color.GREEN };
+    private static final int BLUE = 0, RED = 1, GREEN = 2;
+    // Whether updateHealth uses the kernel written with the Vector API, which needs the JVM
+    // to run with --add-modules jdk.incubator.vector (see VectorHealth).
+    private static final boolean VECTOR_HEALTH = vectorHealth();
+    // The age of a newborn human.
+    private static final int BIRTH_AGE = 12;
+    // The number of steps from an infection to the recovery from it.
+    private static final int INFECTION_STEPS = 15;
 
     // Individual characteristics (instance fields).
+    // The gender, age, position, infection, vaccination and quarantine of the human
+    // are kept in the human store of its field. Its age follows from its step of birth,
+    // and its death of age and the end of its infections are scheduled in the TimingWheel
+    // of its field when they become certain.
 
-    //the human's gender. false for female and true for female.
-    private final boolean sex;
-    // The human's age.
-    private int age;
-    // Whether the human is alive or not.
-    private boolean alive;
-    //Whether the human is infected by the virus
-    private boolean infected;
-    // the number of days someone is infected.
-    private int infectionDays;
-    // If the human is in quarantine or not.
-    private boolean quarantine;
-    // The color human appears on the map;
-    private Color humanColor;
-    //Whether the human is vaccinated;
-    private boolean vaccinated;
-    // The human's position.
-    private Location location;
+    // The store of the human's state.
+    private final HumanStore store;
+    // The handle of the human's state in the store, or -1 once the human is dead.
+    private int handle;
     // The field occupied.
     private Field field;
+    // The number of lives the object has had. A dead human can be given a new life by
+    // create, and the transitions scheduled for its former lives must be ignored.
+    private int life;
+
+    /** Create a new human.
+     * @param randomAge If true, the human will have a random age.
+     * @param randInfected if true, the human will randomly be infected or not
+     * @param field The field currently occupied.
+     * @param location The location within the field
+     * @param rand The random generator for the human's initial state */
+    public Human(boolean randomAge,boolean randInfected, Field field, Location location, RandomGenerator rand) {
+        this(randomAge, randInfected, field, location.getRow(), location.getCol(), rand);
+    }
 
     /** Create a new human.
      * @param randomAge If true, the human will have a random age.
      * @param randInfected if true, the human will randomly be infected or not
      * @param field The field currently occupied.
-     * @param location The location within the field */
-    public Human(boolean randomAge,boolean randInfected, Field field, Location location) {
-        humanColor = Color.BLUE;
-        alive = true;
-        age = 12;
-        infected = false;
-        vaccinated = false;
-        quarantine = false;
-        infectionDays = 0;
-        sex = rand.nextInt(2) != 0;
+     * @param row The row of the location within the field.
+     * @param col The column of the location within the field
+     * @param rand The random generator for the human's initial state */
+    public Human(boolean randomAge,boolean randInfected, Field field, int row, int col, RandomGenerator rand) {
+        store = field.getHumanStore();
+        init(randomAge, randInfected, field, row, col, rand);
+    }
+
+    /** Create a new human, giving a new life to a dead human of the field if there is one,
+     * so that births make no garbage (see HumanStore.removeDead).
+     * @param randomAge If true, the human will have a random age.
+     * @param randInfected if true, the human will randomly be infected or not
+     * @param field The field currently occupied.
+     * @param row The row of the location within the field.
+     * @param col The column of the location within the field
+     * @param rand The random generator for the human's initial state
+     * @return The human */
+    public static Human create(boolean randomAge,boolean randInfected, Field field, int row, int col, RandomGenerator rand) {
+        Human human = field.getHumanStore().reuse();
+        if(human == null) {
+            return new Human(randomAge, randInfected, field, row, col, rand);
+        }
+        human.init(randomAge, randInfected, field, row, col, rand);
+        return human;
+    }
+
+    /** Start a new life of the human, with a new handle.
+     * @param randomAge If true, the human will have a random age.
+     * @param randInfected if true, the human will randomly be infected or not
+     * @param field The field currently occupied, whose store is the store of the human.
+     * @param row The row of the location within the field.
+     * @param col The column of the location within the field
+     * @param rand The random generator for the human's initial state */
+    private void init(boolean randomAge,boolean randInfected, Field field, int row, int col, RandomGenerator rand) {
         this.field = field;
-        setLocation(location);
+        life++;
+        SimulationConfig config = field.getConfig();
+        handle = store.allocate(this);
+        int age = BIRTH_AGE;
+        if(rand.nextInt(2) != 0) {
+            store.setFlags(handle, HumanStore.MALE);
+        }
+        store.setLocation(handle, -1, -1);
+        setLocation(row, col);
         if(randomAge) {
             do {
-                age = rand.nextInt(MAX_AGE);
-            }while(age <= 12);
+                age = rand.nextInt(config.getMaxAge());
+            }while(age <= BIRTH_AGE);
         }
+        int birthStep = field.getStep() - age;
+        store.setBirthStep(handle, birthStep);
+        field.getSchedule().schedule(this, TimingWheel.AGE_OUT, birthStep + config.getMaxAge() + 1);
         if(randInfected){
-            infected = rand.nextDouble() <= INFECTED_PROBABILITY;
-            if(infected){
+            setFlag(HumanStore.INFECTED, rand.nextDouble() <= config.getInfectedProbability());
+            if(isInfected()){
                 setHumanColor();
-                infectionDays = rand.nextInt(14) + 1;
+                scheduleInfection(rand.nextInt(14) + 1, rand, config);
             }
         }
+        field.humanChanged(row, col);
+        field.getStats().humanAdded(this);
     }
 
-    /** Represents a person's step, in which a person can move to another position,
-     * can get older, can breed, can die, can be in quarantine and can get infected by other people.
-     * @param newBorn A list to return newly born humans */
-    public void move(List<Human> newBorn) {
-        incrementAge();
-        if(alive) {
-            infectionDaysIncrement();
-            if(isInfected()){
-                quarantine = rand.nextDouble() <= QUARANTINE_PROBABILITY;
-                if(rand.nextDouble() <= DEATH_PROBABILITY){
-                    setDead();
-                    return;
+    /** Put back a human saved in a Checkpoint, with the state it had then.
+     * @param field The field currently occupied.
+     * @param row The row of the location within the field.
+     * @param col The column of the location within the field.
+     * @param age The age of the human.
+     * @param recoveryStep The step at which its infection ends, if it is infected.
+     * @param deathStep The step at which its infection kills it, or 0 if it does not.
+     * @param flags The flags of the human (see HumanStore) */
+    Human(Field field, int row, int col, int age, int recoveryStep, int deathStep, int flags) {
+        store = field.getHumanStore();
+        restore(field, row, col, age, recoveryStep, deathStep, flags, true);
+    }
+
+    /** Create a human with no life yet, to be given one by restore */
+    private Human(HumanStore store) {
+        this.store = store;
+        handle = -1;
+    }
+
+    /** Put a copy of a human kept by another process into the field for one step, as a
+     * ghost (see StripWorker). The ghost has the state of the human, but nothing is scheduled
+     * for it, as it is taken out of the field again before it could age, recover or die. The
+     * only one of those that shows during the step is a recovery at its start, so a ghost
+     * whose infection ends at the next step is put in recovered already. Like create it
+     * gives a new life to a dead human of the field if there is one, so the ghosts of every
+     * step make no garbage.
+     * @param field The field currently occupied.
+     * @param row The row of the location within the field.
+     * @param col The column of the location within the field.
+     * @param recoveryStep The step at which its infection ends, if it is infected.
+     * @param flags The flags of the human (see HumanStore).
+     * @return The ghost */
+    static Human ghost(Field field, int row, int col, int recoveryStep, int flags) {
+        HumanStore store = field.getHumanStore();
+        Human human = store.reuse();
+        if(human == null) {
+            human = new Human(store);
+        }
+        if(recoveryStep <= field.getStep() + 1) {
+            flags &= ~HumanStore.INFECTED;
+        }
+        human.restore(field, row, col, 0, recoveryStep, 0, flags, false);
+        return human;
+    }
+
+    /** Start a new life of the human, with the given state and a new handle.
+     * @param field The field currently occupied, whose store is the store of the human.
+     * @param row The row of the location within the field.
+     * @param col The column of the location within the field.
+     * @param age The age of the human.
+     * @param recoveryStep The step at which its infection ends, if it is infected.
+     * @param deathStep The step at which its infection kills it, or 0 if it does not.
+     * @param flags The flags of the human (see HumanStore).
+     * @param scheduled Whether its death of age and the end of its infection are scheduled */
+    private void restore(Field field, int row, int col, int age, int recoveryStep, int deathStep, int flags,
+            boolean scheduled) {
+        this.field = field;
+        life++;
+        handle = store.allocate(this);
+        store.setLocation(handle, -1, -1);
+        int birthStep = field.getStep() - age;
+        store.setBirthStep(handle, birthStep);
+        store.setRecoveryStep(handle, recoveryStep);
+        store.setDeathStep(handle, deathStep);
+        store.setFlags(handle, flags);
+        setLocation(row, col);
+        if(scheduled) {
+            TimingWheel schedule = field.getSchedule();
+            schedule.schedule(this, TimingWheel.AGE_OUT, birthStep + field.getConfig().getMaxAge() + 1);
+            if(isInfected()) {
+                schedule.schedule(this, TimingWheel.RECOVERY, recoveryStep);
+                if(deathStep != 0) {
+                    schedule.schedule(this, TimingWheel.DEATH, deathStep);
                 }
             }
-            else if(!isVaccinated()){
-                vaccinated = rand.nextDouble() <= VACCINATING_PROBABILITY;
+        }
+        field.getStats().humanAdded(this);
+    }
+
+    /** Represents a person's step, in which a person can move to another position,
+     * can breed, can die and can get infected by other people.
+     * Growing older, recovering and dying of an infection happen at the start of the step,
+     * when the TimingWheel of the field is advanced, and going into quarantine and getting
+     * vaccinated right after, for all the humans at once (see updateHealth).
+     * @param newBorn A list to return newly born humans
+     * @param rand The random generator for the step. It is only used by one thread at a time */
+    public void move(List<Human> newBorn, RandomGenerator rand) {
+        if(!isAlive()) {
+            return;
+        }
+        SimulationConfig config = field.getConfig();
+        giveBirth(newBorn, rand, config);
+        // Try to move into a free location.
+        int row = getRow();
+        int col = getCol();
+        int direction = field.freeAdjacentDirection(row, col, rand);
+        if(direction >= 0) {
+            row = Field.adjacentRow(row, direction);
+            col = Field.adjacentCol(col, direction);
+            setLocation(row, col);
+            if(field.infection(row, col) && !isInfected()){
+                if(isVaccinated()) {
+                    setInfected(rand.nextDouble() <= config.getUnsafeProbability());
+                }
+                else{
+                    setInfected(rand.nextDouble() <= config.getInfectingProbability());
+                }
+                if(isInfected()) {
+                    scheduleInfection(0, rand, config);
+                }
                 setHumanColor();
             }
-            giveBirth(newBorn);
-            // Try to move into a free location.
-            Location newLocation = field.freeAdjacentLocation(location);
-            if(newLocation != null) {
-                setLocation(newLocation);
-                if(field.infection(newLocation) && !infected){
-                    if(isVaccinated()) {
-                        infected = rand.nextDouble() <= UNSAFE_PROBABILITY;
-                    }
-                    else{
-                        infected = rand.nextDouble() <= INFECTING_PROBABILITY;
-                    }
-                    setHumanColor();
-                }
+        }
+        else {
+            // Overcrowding.
+            setDead();
+        }
+    }
+
+    /** Update the quarantine and vaccination of many humans at once, given their flags
+     * (see HumanStore) side by side in an array. An infected human is in quarantine for the
+     * step with probability quarantineProbability. A human neither infected nor vaccinated
+     * gets vaccinated with probability vaccinatingProbability, and is shown green if it
+     * does and blue if not. The flags are combined with masks rather than branches, so the
+     * loop runs at the same speed whatever mix of humans it is given. If the system property
+     * simulation.vectorHealth is true VectorHealth does it, several humans at a time.
+     * @param flags The flags of the humans, as longs so that VectorHealth can take them
+     *              side by side with the random numbers.
+     * @param uniforms A uniform number from 0 to 1 for each human.
+     * @param updated Set to the new flags of the humans, so the changed ones can be found
+     *                by comparing the arrays.
+     * @param count The number of humans, from the start of the arrays.
+     * @param config The configuration of the simulation */
+    static void updateHealth(long[] flags, double[] uniforms, long[] updated, int count, SimulationConfig config) {
+        double quarantineProbability = config.getQuarantineProbability();
+        double vaccinatingProbability = config.getVaccinatingProbability();
+        int done = 0;
+        if(VECTOR_HEALTH) {
+            done = VectorHealth.updateHealth(flags, uniforms, updated, count, quarantineProbability,
+                    vaccinatingProbability, BLUE << HumanStore.COLOR_SHIFT, GREEN << HumanStore.COLOR_SHIFT);
+        }
+        for(int i = done; i < count; i++) {
+            int f = (int) flags[i];
+            double u = uniforms[i];
+            // All ones if the human has the flag, all zeros if not.
+            int infected = -((f & HumanStore.INFECTED) >>> 1);
+            int vaccinated = -((f & HumanStore.VACCINATED) >>> 2);
+            int quarantine = u <= quarantineProbability ? HumanStore.QUARANTINE : 0;
+            int vaccinate = u <= vaccinatingProbability ? HumanStore.VACCINATED : 0;
+            int sick = (f & ~HumanStore.QUARANTINE) | quarantine;
+            int healthy = (f & ~HumanStore.COLOR_MASK) | vaccinate
+                    | (vaccinate != 0 ? GREEN : BLUE) << HumanStore.COLOR_SHIFT;
+            updated[i] = (sick & infected) | (~infected & ((f & vaccinated) | (healthy & ~vaccinated)));
+        }
+    }
+
+    /** @return Whether the system property simulation.vectorHealth asks for the Vector API
+     *          kernel of updateHealth and the JVM has the Vector API */
+    private static boolean vectorHealth() {
+        if(!Boolean.getBoolean("simulation.vectorHealth")) {
+            return false;
+        }
+        // VectorHealth cannot even be loaded without the module.
+        if(ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            System.err.println("simulation.vectorHealth needs --add-modules jdk.incubator.vector;"
+                    + " updating the health of the humans without it");
+            return false;
+        }
+        return true;
+    }
+
+    /** Make a transition the human was scheduled for, unless it has died in the meantime.
+     * @param kind The kind of transition (see TimingWheel).
+     * @param life The life of the human it was scheduled in */
+    void transition(int kind, int life) {
+        if(handle >= 0 && life == this.life) {
+            if(kind == TimingWheel.RECOVERY) {
+                setInfected(false);
+                //quarantine = false;
             }
             else {
-                // Overcrowding.
                 setDead();
             }
         }
@@ -129,126 +302,233 @@ public class Human
     /** Check whether the human is alive or not.
      * @return true if the human is still alive */
     public boolean isAlive() {
-        return alive;
+        return handle >= 0;
     }
 
     /** Check whether the human is infected by the virus
      * @return true if he is infected */
     public boolean isInfected(){
-        return infected;
+        return hasFlag(HumanStore.INFECTED);
     }
 
     /** @return the age of the human */
     public int getAge(){
-        return age;
+        return handle >= 0 ? field.getStep() - store.getBirthStep(handle) : 0;
     }
 
     /** Check whether the human is infected
      * @return true if he is infected */
     public boolean isVaccinated(){
-        return vaccinated;
+        return hasFlag(HumanStore.VACCINATED);
     }
 
     /** Check if the infected human is in quarantine
      * @return true if the human is in quarantine */
     public boolean isQuarantine(){
-        return quarantine;
-    }
-
-    /** If a human is infected, Increases the number of days of his infection */
-    public void infectionDaysIncrement(){
-        if(isInfected()){
-            if(infectionDays <= 13)
-                infectionDays ++;
-            else {
-                infectionDays = 0;
-                infected = false;
-                //quarantine = false;
-            }
-        }
+        return hasFlag(HumanStore.QUARANTINE);
     }
 
     /** @return a person's view color */
     public Color getHumanColor(){
-        return humanColor;
+        return handle >= 0 ? colorOf(store.getFlags(handle)) : COLORS[BLUE];
+    }
+
+    /** @param flags The flags of a human in its HumanStore.
+     * @return The view color of a human with those flags */
+    static Color colorOf(int flags){
+        return COLORS[(flags & HumanStore.COLOR_MASK) >>> HumanStore.COLOR_SHIFT];
     }
 
     /** Set a person's view color, depending on the person's infection status */
     public void setHumanColor(){
+        int color;
         if(isInfected())
-            humanColor = Color.RED;
+            color = RED;
         else if(isVaccinated() && !isInfected())
-            humanColor = Color.GREEN;
+            color = GREEN;
         else
-            humanColor = Color.BLUE;
+            color = BLUE;
+        store.setFlags(handle, (store.getFlags(handle) & ~HumanStore.COLOR_MASK) | (color << HumanStore.COLOR_SHIFT));
     }
 
     /** @return the number of the days the human is infected */
     public int getInfectionDays(){
-        return infectionDays;
+        return isInfected() ? INFECTION_STEPS - (store.getRecoveryStep(handle) - field.getStep()) : 0;
     }
 
     /** Indicate that the human is no longer alive. It is removed from the field */
     public void setDead() {
-        alive = false;
-        if(location != null) {
-            field.clear(location);
-            location = null;
-            field = null;
+        if(handle >= 0) {
+            field.getStats().humanDied(this);
+            remove();
         }
     }
 
-    /** @return The human's location */
+    /** Take the human out of the field without it dying, e.g. when it moves on to a part of
+     * the field kept by another process. Like a dead human it is no longer alive here */
+    void leave() {
+        if(handle >= 0) {
+            field.getStats().humanLeft(this);
+            remove();
+        }
+    }
+
+    /** @return The human's location, or null if the human is no longer in the field */
     public Location getLocation() {
-        return location;
+        return handle >= 0 ? new Location(getRow(), getCol()) : null;
+    }
+
+    /** @return The row of the human's location, or -1 if it is no longer in the field */
+    public int getRow() {
+        return handle >= 0 ? store.getRow(handle) : -1;
+    }
+
+    /** @return The column of the human's location, or -1 if it is no longer in the field */
+    public int getCol() {
+        return handle >= 0 ? store.getCol(handle) : -1;
+    }
+
+    /** @return The number of lives the object has had, including the current one */
+    int getLife() {
+        return life;
+    }
+
+    /** @return The handle of the human's state in the human store of its field,
+     *          or -1 if the human is dead */
+    public int getHandle() {
+        return handle;
+    }
+
+    /** Remove the human from its field and give up its handle */
+    private void remove() {
+        field.clear(getRow(), getCol());
+        store.release(handle);
+        handle = -1;
+        field = null;
     }
 
     /** Place the human at the new location in the given field.
-     * @param newLocation The human's new location */
-    private void setLocation(Location newLocation) {
-        if(location != null) {
-            field.clear(location);
+     * @param newRow The row of the human's new location.
+     * @param newCol The column of the human's new location */
+    private void setLocation(int newRow, int newCol) {
+        int row = store.getRow(handle);
+        if(row >= 0) {
+            field.clear(row, store.getCol(handle));
         }
-        location = newLocation;
-        field.place(this, newLocation);
+        store.setLocation(handle, newRow, newCol);
+        field.place(this, newRow, newCol);
     }
 
-    /** Increase the age. This could result in the human's death */
-    private void incrementAge() {
-        age++;
-        if(age > MAX_AGE) {
-            setDead();
+    /** @param flag One of the flags of HumanStore.
+     * @return true if the human is alive and has the flag */
+    private boolean hasFlag(int flag) {
+        return handle >= 0 && (store.getFlags(handle) & flag) != 0;
+    }
+
+    /** Set or clear one of the flags of the human, telling nobody but the fingerprint of
+     * the field.
+     * @param flag One of the flags of HumanStore.
+     * @param value Whether the human has the flag from now on */
+    private void setFlag(int flag, boolean value) {
+        int flags = store.getFlags(handle);
+        int changed = value ? flags | flag : flags & ~flag;
+        store.setFlags(handle, changed);
+        int row = store.getRow(handle);
+        if(row >= 0) {
+            field.flagsChanged(row, store.getCol(handle), flags, changed);
+        }
+    }
+
+    /** Change whether the human is infected, keeping the statistics of the field up to date.
+     * @param nowInfected Whether the human is infected from now on */
+    private void setInfected(boolean nowInfected) {
+        if(nowInfected != isInfected()) {
+            FieldStats stats = field.getStats();
+            stats.infectionChanged(nowInfected);
+            if(isQuarantine()) {
+                stats.quarantineChanged(nowInfected);
+            }
+            setFlag(HumanStore.INFECTED, nowInfected);
+            field.humanChanged(getRow(), getCol());
+        }
+    }
+
+    /** Decide how the infection the human just got ends, and schedule it. It recovers
+     * INFECTION_STEPS steps after it got infected, unless it dies of the infection at one of
+     * the steps in between, each of which it survives with probability 1 - deathProbability.
+     * The step of its death is drawn at once from the geometric distribution.
+     * @param days The number of steps the human has already been infected.
+     * @param rand The random generator for the step.
+     * @param config The configuration of the simulation */
+    private void scheduleInfection(int days, RandomGenerator rand, SimulationConfig config) {
+        int now = field.getStep();
+        int recoveryStep = now + INFECTION_STEPS - days;
+        int steps = stepsToDeath(rand, config.getDeathProbability());
+        int deathStep = steps < recoveryStep - now ? now + steps : 0;
+        store.setRecoveryStep(handle, recoveryStep);
+        store.setDeathStep(handle, deathStep);
+        TimingWheel schedule = field.getSchedule();
+        schedule.schedule(this, TimingWheel.RECOVERY, recoveryStep);
+        if(deathStep != 0) {
+            schedule.schedule(this, TimingWheel.DEATH, deathStep);
         }
     }
 
+    /** Draw the number of steps to the first success of trials that succeed with a given
+     * probability, by inverting the geometric distribution.
+     * @param rand The random generator for the step.
+     * @param probability The probability of success of a trial.
+     * @return The number of steps, at least 1, or Integer.MAX_VALUE if it never succeeds */
+    private static int stepsToDeath(RandomGenerator rand, double probability) {
+        if(probability <= 0) {
+            return Integer.MAX_VALUE;
+        }
+        if(probability >= 1) {
+            return 1;
+        }
+        double steps = Math.ceil(Math.log(1 - rand.nextDouble()) / Math.log1p(-probability));
+        return (int) Math.max(1, Math.min(steps, Integer.MAX_VALUE));
+    }
+
     /** Check whether or not this human is to give birth at this step.
      * New births will be made into free adjacent locations.
-     * @param newBorn A list to return newly born rabbits */
-    private void giveBirth(List<Human> newBorn) {
+     * @param newBorn A list to return newly born rabbits
+     * @param rand The random generator for the step.
+     * @param config The configuration of the simulation */
+    private void giveBirth(List<Human> newBorn, RandomGenerator rand, SimulationConfig config) {
         // New human is born into adjacent locations.
-        // Get a list of adjacent free locations.
-        List<Location> free = field.getFreeAdjacentLocations(location);
-        int births = breed();
-        for(int b = 0; b < births && free.size() > 0; b++) {
-            Location loc = free.remove(0);
-            Human young = new Human(false,false,field, loc);
+        // Each birth takes one of the free adjacent locations left.
+        int births = breed(rand, config);
+        int row = getRow();
+        int col = getCol();
+        for(int b = 0; b < births; b++) {
+            int direction = field.freeAdjacentDirection(row, col, rand);
+            if(direction < 0) {
+                break;
+            }
+            Human young = Human.create(false,false,field, Field.adjacentRow(row, direction), Field.adjacentCol(col, direction), rand);
+            field.getStats().humanBorn();
             newBorn.add(young);
         }
     }
 
     /** Generate a number representing the number of births, if it can breed.
+     * @param rand The random generator for the step.
+     * @param config The configuration of the simulation.
      * @return The number of births (may be zero) */
-    private int breed() {
+    private int breed(RandomGenerator rand, SimulationConfig config) {
         int births = 0;
-        if(canBreed() && rand.nextDouble() <= BREEDING_PROBABILITY) {
-            births = rand.nextInt(MAX_LITTER_SIZE) + 1;
+        if(canBreed(config) && rand.nextDouble() <= config.getBreedingProbability()) {
+            births = rand.nextInt(config.getMaxLitterSize()) + 1;
         }
         return births;
     }
 
     /** A human can breed if it has reached the breeding age.
+     * @param config The configuration of the simulation.
      * @return true if the human can breed, false otherwise */
-    private boolean canBreed() {
-        return (!sex && age >= BREEDING_AGE && age <= MAX_BREEDING_AGE);
+    private boolean canBreed(SimulationConfig config) {
+        int age = field.getStep() - store.getBirthStep(handle);
+        return (!hasFlag(HumanStore.MALE) && age >= config.getBreedingAge() && age <= config.getMaxBreedingAge());
     }
 }
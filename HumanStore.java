@@ -0,0 +1,198 @@
+import java.util.Arrays;
+import java.util.List;
+
+/** Storage for the state of the humans of a field: position, step of birth, flags and the
+ * steps of the recovery and death an infection is to end in, kept in primitive form.
+ * Every human is given a handle, a small int that stays the same for as long as it lives;
+ * handles of dead humans are given to newborn ones. The state is kept in segments that
+ * are never moved once allocated, so humans on different threads can use their own state
+ * while others are born.
+ *
+ * Subclasses decide where the segments live, e.g. in arrays on the heap or in a
+ * memory-mapped file. The handles and the Human objects they belong to are managed here,
+ * including a pool of dead Human objects that are given a new life by Human.create */
+public abstract class HumanStore
+{
+    // The flags of the state of a human.
+    public static final int MALE = 1;
+    public static final int INFECTED = 2;
+    public static final int VACCINATED = 4;
+    public static final int QUARANTINE = 8;
+    // The color a human is shown in (see Human.getHumanColor) is kept in two bits of its flags.
+    public static final int COLOR_SHIFT = 4;
+    public static final int COLOR_MASK = 3 << COLOR_SHIFT;
+
+    // The number of low bits of a handle that select a human within a segment.
+    protected final int segmentShift;
+    // The number of humans of a segment, less one.
+    protected final int segmentMask;
+
+    // The human of each handle, segment by segment; null for a free handle.
+    private Human[][] humans;
+    // The handles given back by dead humans, to be given out again.
+    private int[] free;
+    // The number of handles in free.
+    private int freeCount;
+    // The number of handles given out so far, including the free ones.
+    private int used;
+    // Dead humans to be given a new life.
+    private Human[] pool;
+    // The number of humans in pool.
+    private int pooled;
+
+    /** Create an empty store.
+     * @param segmentShift The number of humans of a segment, as a power of two */
+    protected HumanStore(int segmentShift) {
+        this.segmentShift = segmentShift;
+        this.segmentMask = (1 << segmentShift) - 1;
+        humans = new Human[0][];
+        free = new int[16];
+        pool = new Human[16];
+    }
+
+    /** Give a handle to a new human. Its state starts all zero.
+     * @param human The human.
+     * @return The handle of the human */
+    public synchronized int allocate(Human human) {
+        int handle;
+        if(freeCount > 0) {
+            handle = free[--freeCount];
+        }
+        else {
+            handle = used++;
+            int segment = handle >>> segmentShift;
+            if(segment == humans.length) {
+                addSegment(segment);
+                Human[][] more = Arrays.copyOf(humans, segment + 1);
+                more[segment] = new Human[segmentMask + 1];
+                humans = more;
+            }
+        }
+        humans[handle >>> segmentShift][handle & segmentMask] = human;
+        clearState(handle);
+        return handle;
+    }
+
+    /** Give back the handle of a dead human, so it can be given to another one.
+     * @param handle The handle of the human */
+    public synchronized void release(int handle) {
+        humans[handle >>> segmentShift][handle & segmentMask] = null;
+        if(freeCount == free.length) {
+            free = Arrays.copyOf(free, freeCount * 2);
+        }
+        free[freeCount++] = handle;
+    }
+
+    /** Remove the dead humans from a list in one pass, keeping the order of the others,
+     * and keep them to be given a new life. Nothing else may use the dead humans after
+     * this, so it must not be called while humans are being updated.
+     * @param humans The list, e.g. all the humans of a simulation */
+    public void removeDead(List<Human> humans) {
+        int size = humans.size();
+        int kept = 0;
+        for(int i = 0; i < size; i++) {
+            Human human = humans.get(i);
+            if(human.isAlive()) {
+                if(kept != i) {
+                    humans.set(kept, human);
+                }
+                kept++;
+            }
+            else {
+                recycle(human);
+            }
+        }
+        humans.subList(kept, size).clear();
+    }
+
+    /** @return A dead human to be given a new life, or null if there is none */
+    synchronized Human reuse() {
+        if(pooled == 0) {
+            return null;
+        }
+        Human human = pool[--pooled];
+        pool[pooled] = null;
+        return human;
+    }
+
+    /** Keep a dead human to be given a new life */
+    private synchronized void recycle(Human human) {
+        if(pooled == pool.length) {
+            pool = Arrays.copyOf(pool, pooled * 2);
+        }
+        pool[pooled++] = human;
+    }
+
+    /** @param handle A handle given out by the store.
+     * @return The human of the handle, or null if the handle is free */
+    public Human getHuman(int handle) {
+        return humans[handle >>> segmentShift][handle & segmentMask];
+    }
+
+    /** Give back every handle. The humans that had them must not be used any more */
+    public synchronized void clear() {
+        for(Human[] segment : humans) {
+            Arrays.fill(segment, null);
+        }
+        freeCount = 0;
+        used = 0;
+    }
+
+    /** @return The number of handles given out so far, including those of dead humans.
+     *          Every handle is less than this */
+    public synchronized int getCapacity() {
+        return used;
+    }
+
+    /** @return The row of the human's location */
+    public abstract int getRow(int handle);
+
+    /** @return The column of the human's location */
+    public abstract int getCol(int handle);
+
+    /** Set the location of a human.
+     * @param handle The handle of the human.
+     * @param row The row of the location.
+     * @param col The column of the location */
+    public abstract void setLocation(int handle, int row, int col);
+
+    /** @return The step at which the human was, or would have been, of age 0 */
+    public abstract int getBirthStep(int handle);
+
+    /** Set the step of birth of a human, from which its age follows.
+     * @param handle The handle of the human.
+     * @param step The step at which the human was of age 0 */
+    public abstract void setBirthStep(int handle, int step);
+
+    /** @return The step at which the infection of the human ends, if it is infected */
+    public abstract int getRecoveryStep(int handle);
+
+    /** Set the step at which the infection of a human ends.
+     * @param handle The handle of the human.
+     * @param step The step of the recovery */
+    public abstract void setRecoveryStep(int handle, int step);
+
+    /** @return The step at which the infection of the human kills it, or 0 if it does not */
+    public abstract int getDeathStep(int handle);
+
+    /** Set the step at which the infection of a human kills it.
+     * @param handle The handle of the human.
+     * @param step The step of the death, or 0 if the human survives the infection */
+    public abstract void setDeathStep(int handle, int step);
+
+    /** @return The flags of the human, e.g. INFECTED | QUARANTINE */
+    public abstract int getFlags(int handle);
+
+    /** Set the flags of a human.
+     * @param handle The handle of the human.
+     * @param flags The new flags */
+    public abstract void setFlags(int handle, int flags);
+
+    /** Allocate the storage of another segment of humans.
+     * @param segment The index of the segment, one more than the last */
+    protected abstract void addSegment(int segment);
+
+    /** Set the state of a human to all zero.
+     * @param handle The handle of the human */
+    protected abstract void clearState(int handle);
+}
@@ -0,0 +1,193 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/** The live metrics of a running simulation: its progress, throughput, memory use and the
+ * statistics of its field. As an observer of the simulation it is told about every step, and
+ * only writes a few volatile fields there, once a second or so; readers such as JMX clients
+ * (see LiveMetricsMBean) and MetricsServer read them without any locking. The statistics of
+ * the field are read straight from its FieldStats */
+public class LiveMetrics implements LiveMetricsMBean, SimulatorObserver
+{
+    // The name of the MBean of the metrics.
+    public static final String OBJECT_NAME = "simulation:type=LiveMetrics";
+    // The least time between two updates of the rates, in nanoseconds.
+    private static final long RATE_INTERVAL = 1_000_000_000L;
+
+    // The simulation the metrics are of.
+    private final Simulator simulator;
+    // Tells the bytes allocated by a thread, or null if the JVM cannot tell.
+    private final com.sun.management.ThreadMXBean allocation;
+    // The step reached.
+    private volatile int step;
+    // The rates measured over the last interval.
+    private volatile double stepsPerSecond, agentUpdatesPerSecond, allocatedBytesPerStep;
+    // The time, step, human updates and allocated bytes at the start of the interval.
+    // Only used by the thread running the simulation. The bytes are -1 until first measured.
+    private long intervalStart, intervalSteps, intervalUpdates, intervalBytes = -1;
+    // The steps taken since the metrics were created, as reset does not change the rates.
+    private long steps;
+
+    /** Create the metrics of a simulation and add them to its observers.
+     * @param simulator The simulation */
+    public LiveMetrics(Simulator simulator) {
+        this.simulator = simulator;
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if(threads instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()) {
+            allocation = (com.sun.management.ThreadMXBean) threads;
+        }
+        else {
+            allocation = null;
+            allocatedBytesPerStep = -1;
+        }
+        step = simulator.getStep();
+        intervalStart = System.nanoTime();
+        intervalUpdates = simulator.getHumanUpdates();
+        simulator.addObserver(this);
+    }
+
+    /** Register the metrics with the platform MBean server, under OBJECT_NAME.
+     * @throws IOException If they cannot be registered, e.g. because other metrics are */
+    public void registerMBean() throws IOException {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(this, new ObjectName(OBJECT_NAME));
+        }
+        catch(JMException e) {
+            throw new IOException("Cannot register " + OBJECT_NAME, e);
+        }
+    }
+
+    @Override
+    public void stepCompleted(int step, Field field) {
+        if(step == this.step + 1) {
+            steps++;
+        }
+        this.step = step;
+        long now = System.nanoTime();
+        long elapsed = now - intervalStart;
+        if(elapsed >= RATE_INTERVAL) {
+            long updates = simulator.getHumanUpdates();
+            long taken = steps - intervalSteps;
+            stepsPerSecond = taken * 1e9 / elapsed;
+            // A reset starts the count of updates again.
+            agentUpdatesPerSecond = Math.max(0, updates - intervalUpdates) * 1e9 / elapsed;
+            if(allocation != null) {
+                long bytes = allocation.getCurrentThreadAllocatedBytes();
+                if(intervalBytes >= 0) {
+                    allocatedBytesPerStep = taken > 0 ? (double) (bytes - intervalBytes) / taken : 0;
+                }
+                intervalBytes = bytes;
+            }
+            intervalStart = now;
+            intervalSteps = steps;
+            intervalUpdates = updates;
+        }
+    }
+
+    /** Write the metrics in the text format of Prometheus.
+     * @param out Where to write them */
+    public void writePrometheus(StringBuilder out) {
+        gauge(out, "simulation_step", "The step the simulation has reached.", getStep());
+        gauge(out, "simulation_steps_per_second", "Steps per second over the last second or so.", getStepsPerSecond());
+        gauge(out, "simulation_agent_updates_per_second", "Human updates per second over the last second or so.",
+                getAgentUpdatesPerSecond());
+        gauge(out, "simulation_allocated_bytes_per_step", "Bytes allocated per step by the simulation thread.",
+                getAllocatedBytesPerStep());
+        gauge(out, "simulation_heap_used_bytes", "Bytes of the heap in use.", getHeapUsed());
+        gauge(out, "simulation_population", "Humans in the field.", getPopulation());
+        gauge(out, "simulation_infected", "Infected humans.", getInfected());
+        gauge(out, "simulation_vaccinated", "Vaccinated humans.", getVaccinated());
+        gauge(out, "simulation_quarantined", "Infected humans in quarantine.", getQuarantined());
+        counter(out, "simulation_births_total", "Humans born since the last reset.", getBirths());
+        counter(out, "simulation_deaths_total", "Humans that died since the last reset.", getDeaths());
+    }
+
+    @Override
+    public int getStep() {
+        return step;
+    }
+
+    @Override
+    public double getStepsPerSecond() {
+        return stepsPerSecond;
+    }
+
+    @Override
+    public double getAgentUpdatesPerSecond() {
+        return agentUpdatesPerSecond;
+    }
+
+    @Override
+    public double getAllocatedBytesPerStep() {
+        return allocatedBytesPerStep;
+    }
+
+    @Override
+    public long getHeapUsed() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    @Override
+    public int getPopulation() {
+        return stats().getPopulation();
+    }
+
+    @Override
+    public int getInfected() {
+        return stats().infectedCount();
+    }
+
+    @Override
+    public int getVaccinated() {
+        return stats().vaccinatedCount();
+    }
+
+    @Override
+    public int getQuarantined() {
+        return stats().quarantinedCount();
+    }
+
+    @Override
+    public int getBirths() {
+        return stats().birthCount();
+    }
+
+    @Override
+    public int getDeaths() {
+        return stats().deadCount();
+    }
+
+    /** @return The statistics of the field of the simulation */
+    private FieldStats stats() {
+        return simulator.getField().getStats();
+    }
+
+    /** Write a gauge in the text format of Prometheus */
+    private static void gauge(StringBuilder out, String name, String help, double value) {
+        metric(out, name, help, "gauge", value);
+    }
+
+    /** Write a counter in the text format of Prometheus */
+    private static void counter(StringBuilder out, String name, String help, double value) {
+        metric(out, name, help, "counter", value);
+    }
+
+    /** Write a metric in the text format of Prometheus */
+    private static void metric(StringBuilder out, String name, String help, String type, double value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        out.append(name).append(' ');
+        if(value == Math.rint(value) && Math.abs(value) < 1e15) {
+            out.append((long) value);
+        }
+        else {
+            out.append(value);
+        }
+        out.append('\n');
+    }
+}
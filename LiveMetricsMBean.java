@@ -0,0 +1,38 @@
+/** The management interface of LiveMetrics, as shown by JMX clients such as JConsole
+ * under the name "simulation:type=LiveMetrics" */
+public interface LiveMetricsMBean
+{
+    /** @return The step the simulation has reached */
+    int getStep();
+
+    /** @return The number of steps per second, over the last second or so */
+    double getStepsPerSecond();
+
+    /** @return The number of human updates per second, over the last second or so */
+    double getAgentUpdatesPerSecond();
+
+    /** @return The number of bytes allocated per step by the thread running the simulation,
+     *          over the last second or so, or -1 if the JVM cannot tell */
+    double getAllocatedBytesPerStep();
+
+    /** @return The number of bytes of the heap in use */
+    long getHeapUsed();
+
+    /** @return The number of humans in the field */
+    int getPopulation();
+
+    /** @return The number of infected humans */
+    int getInfected();
+
+    /** @return The number of vaccinated humans */
+    int getVaccinated();
+
+    /** @return The number of infected humans in quarantine */
+    int getQuarantined();
+
+    /** @return The number of humans born since the last reset */
+    int getBirths();
+
+    /** @return The number of humans that died since the last reset */
+    int getDeaths();
+}
@@ -0,0 +1,265 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/** A FieldStore in memory-mapped files, outside of the Java heap. One file holds the
+ * handle (see HumanStore) of the human at each position, plus one, or 0 for an empty
+ * position; another holds the bitplane of the contagious positions, and the last the mask
+ * of the occupied neighbours of each position, a byte each. They are laid out row after
+ * row and mapped in segments of whole rows of at most 1GB, which are only mapped once a
+ * human is placed in them or next to them. The files are sparse, so the disk and memory
+ * they take grow with the parts of the field that have been used.
+ *
+ * The humans themselves are found through the HumanStore their handles belong to */
+public class MappedFieldStore implements FieldStore
+{
+    // Updates the words of the bitplane atomically, as tiles may share a word.
+    private static final VarHandle WORDS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    // Installs new segments atomically.
+    private static final VarHandle SEGMENTS = MethodHandles.arrayElementVarHandle(Segment[].class);
+    // The largest size of a segment of a file.
+    private static final long MAX_SEGMENT_SIZE = 1L << 30;
+
+    // The store of the humans whose handles are kept here.
+    private final HumanStore humans;
+    // The files of the handles, of the bitplane and of the masks of occupied neighbours.
+    private final FileChannel cellFile, contagiousFile, neighbourFile;
+    // The depth and width of the field.
+    private final int depth, width;
+    // The number of longs of the bitplane for each row.
+    private final int wordsPerRow;
+    // The number of low bits of a row that select a row within a segment.
+    private final int segmentShift;
+    // The segments of the files. A segment is null until a human is placed in it.
+    private final Segment[] segments;
+
+    /** Create an empty store for a field of the given dimensions. The files are created in
+     * the given directory, or emptied if they exist, and deleted when the program exits.
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     * @param directory The directory of the files.
+     * @param humans The store of the humans that will be placed in the field.
+     * @throws IOException If the files cannot be created */
+    public MappedFieldStore(int depth, int width, Path directory, HumanStore humans) throws IOException {
+        this.humans = humans;
+        this.depth = depth;
+        this.width = width;
+        wordsPerRow = (width + 63) >>> 6;
+        long rowSize = Math.max((long) width * Integer.BYTES, (long) wordsPerRow * Long.BYTES);
+        int shift = 0;
+        while(shift < 30 && (rowSize << (shift + 1)) <= MAX_SEGMENT_SIZE) {
+            shift++;
+        }
+        segmentShift = shift;
+        segments = new Segment[(int) (((long) depth + (1L << shift) - 1) >>> shift)];
+        cellFile = open(directory.resolve("cells.bin"));
+        contagiousFile = open(directory.resolve("contagious.bin"));
+        neighbourFile = open(directory.resolve("neighbours.bin"));
+    }
+
+    @Override
+    public Human get(int row, int col) {
+        int handle = handle(row, col);
+        return handle != 0 ? humans.getHuman(handle - 1) : null;
+    }
+
+    @Override
+    public boolean isOccupied(int row, int col) {
+        return handle(row, col) != 0;
+    }
+
+    @Override
+    public void set(int row, int col, Human human) {
+        Segment segment = human != null ? mapSegment(row) : segment(row);
+        if(segment != null) {
+            segment.cells.putInt(cellOffset(row, col), human != null ? human.getHandle() + 1 : 0);
+        }
+    }
+
+    @Override
+    public void setContagious(int row, int col, boolean value) {
+        Segment segment = value ? mapSegment(row) : segment(row);
+        if(segment == null) {
+            return;
+        }
+        int offset = wordOffset(row, col >>> 6);
+        long bit = 1L << col;
+        if((((long) WORDS.get(segment.contagious, offset) & bit) != 0) != value) {
+            if(value) {
+                WORDS.getAndBitwiseOr(segment.contagious, offset, bit);
+            }
+            else {
+                WORDS.getAndBitwiseAnd(segment.contagious, offset, ~bit);
+            }
+        }
+    }
+
+    @Override
+    public long contagiousWord(int row, int word) {
+        Segment segment = segment(row);
+        return segment != null ? (long) WORDS.get(segment.contagious, wordOffset(row, word)) : 0;
+    }
+
+    @Override
+    public int occupiedNeighbours(int row, int col) {
+        Segment segment = segment(row);
+        return segment != null ? segment.neighbours.get(neighbourOffset(row, col)) & 0xFF : 0;
+    }
+
+    @Override
+    public void setOccupiedAround(int row, int col, boolean value) {
+        for(int d = 0; d < 8; d++) {
+            int nextRow = Field.adjacentRow(row, d);
+            int nextCol = Field.adjacentCol(col, d);
+            if(nextRow >= 0 && nextRow < depth && nextCol >= 0 && nextCol < width) {
+                Segment segment = value ? mapSegment(nextRow) : segment(nextRow);
+                if(segment != null) {
+                    int offset = neighbourOffset(nextRow, nextCol);
+                    segment.neighbours.put(offset, (byte) (segment.neighbours.get(offset) ^ 1 << (7 - d)));
+                }
+            }
+        }
+    }
+
+    @Override
+    public void clear() {
+        for(Segment segment : segments) {
+            if(segment != null) {
+                zero(segment.cells);
+                zero(segment.contagious);
+                zero(segment.neighbours);
+            }
+        }
+    }
+
+    /** A mapped segment stays mapped until the store is no longer used.
+     * @return 0 */
+    @Override
+    public int releaseEmpty() {
+        return 0;
+    }
+
+    @Override
+    public int getBlockCount() {
+        int count = 0;
+        for(Segment segment : segments) {
+            if(segment != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /** @return The handle of the human at a position plus one, or 0 if there is none */
+    private int handle(int row, int col) {
+        Segment segment = segment(row);
+        return segment != null ? segment.cells.getInt(cellOffset(row, col)) : 0;
+    }
+
+    /** @return The segment holding the given row, or null if it is not mapped */
+    private Segment segment(int row) {
+        return (Segment) SEGMENTS.getAcquire(segments, row >>> segmentShift);
+    }
+
+    /** @return The offset of a position within the segment of the handles */
+    private int cellOffset(int row, int col) {
+        return ((row & ((1 << segmentShift) - 1)) * width + col) * Integer.BYTES;
+    }
+
+    /** @return The offset of the mask of the occupied neighbours of a position within the
+     *          segment of the masks */
+    private int neighbourOffset(int row, int col) {
+        return (row & ((1 << segmentShift) - 1)) * width + col;
+    }
+
+    /** @return The offset of a word of the bitplane within its segment */
+    private int wordOffset(int row, int word) {
+        return ((row & ((1 << segmentShift) - 1)) * wordsPerRow + word) * Long.BYTES;
+    }
+
+    /** Find the segment holding the given row, mapping it if need be.
+     * @return The segment of the row */
+    private Segment mapSegment(int row) {
+        Segment segment = segment(row);
+        return segment != null ? segment : mapSegmentAt(row >>> segmentShift);
+    }
+
+    /** Map a segment of every file, unless another thread has done so in the meantime.
+     * @param index The index of the segment.
+     * @return The segment */
+    private synchronized Segment mapSegmentAt(int index) {
+        Segment segment = (Segment) SEGMENTS.getAcquire(segments, index);
+        if(segment == null) {
+            long rows = 1L << segmentShift;
+            try {
+                long cellSize = rows * width * Integer.BYTES;
+                long contagiousSize = rows * wordsPerRow * Long.BYTES;
+                long neighbourSize = rows * width;
+                segment = new Segment(map(cellFile, index * cellSize, cellSize),
+                        map(contagiousFile, index * contagiousSize, contagiousSize),
+                        map(neighbourFile, index * neighbourSize, neighbourSize));
+            }
+            catch(IOException e) {
+                throw new UncheckedIOException("Cannot map the field", e);
+            }
+            SEGMENTS.setRelease(segments, index, segment);
+        }
+        return segment;
+    }
+
+    /** Create or empty a file of the store.
+     * @param file The path of the file.
+     * @return The open file */
+    private static FileChannel open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        file.toFile().deleteOnExit();
+        return channel;
+    }
+
+    /** Map a part of a file, growing the file if need be.
+     * @return The mapped part */
+    private static MappedByteBuffer map(FileChannel channel, long position, long size) throws IOException {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, position, size);
+        buffer.order(ByteOrder.nativeOrder());
+        return buffer;
+    }
+
+    /** Set every byte of a mapped segment to zero. Only the words that are not zero are
+     * written, so the pages that were never used stay out of memory and the disk */
+    private static void zero(MappedByteBuffer buffer) {
+        int limit = buffer.capacity();
+        int i = 0;
+        for(; i + Long.BYTES <= limit; i += Long.BYTES) {
+            if(buffer.getLong(i) != 0) {
+                buffer.putLong(i, 0);
+            }
+        }
+        for(; i < limit; i++) {
+            buffer.put(i, (byte) 0);
+        }
+    }
+
+    /** The mapped parts of the files for a range of rows */
+    private static class Segment
+    {
+        // The handles of the humans of the rows, plus one.
+        final MappedByteBuffer cells;
+        // The bitplane of the contagious positions of the rows.
+        final MappedByteBuffer contagious;
+        // The masks of the occupied neighbours of the positions of the rows.
+        final MappedByteBuffer neighbours;
+
+        Segment(MappedByteBuffer cells, MappedByteBuffer contagious, MappedByteBuffer neighbours) {
+            this.cells = cells;
+            this.contagious = contagious;
+            this.neighbours = neighbours;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/** A HumanStore keeping the state of the humans in a memory-mapped file, outside of the
+ * Java heap. Each human has a record of 32 bytes: row, column, step of birth and steps of
+ * recovery and death as ints, then the flags as a byte. The file grows a segment of 262144 records
+ * at a time, and each segment is mapped on its own */
+public class MappedHumanStore extends HumanStore
+{
+    // The number of humans of a segment, as a power of two.
+    private static final int SEGMENT_SHIFT = 18;
+    // The size of the record of a human, as a power of two.
+    private static final int RECORD_SHIFT = 5;
+    // The offsets of the parts of a record.
+    private static final int ROW = 0, COL = 4, BIRTH = 8, RECOVERY = 12, DEATH = 16, FLAGS = 20;
+
+    // The file the records are kept in.
+    private final FileChannel channel;
+    // The mapped segments of the file. Segments are added, but never moved.
+    private MappedByteBuffer[] segments;
+
+    /** Create an empty store in the given file, which is created or emptied, and deleted
+     * when the program exits.
+     * @param file The file to keep the records in.
+     * @throws IOException If the file cannot be created */
+    public MappedHumanStore(Path file) throws IOException {
+        super(SEGMENT_SHIFT);
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        file.toFile().deleteOnExit();
+        segments = new MappedByteBuffer[0];
+    }
+
+    @Override
+    public int getRow(int handle) {
+        return segment(handle).getInt(offset(handle) + ROW);
+    }
+
+    @Override
+    public int getCol(int handle) {
+        return segment(handle).getInt(offset(handle) + COL);
+    }
+
+    @Override
+    public void setLocation(int handle, int row, int col) {
+        MappedByteBuffer segment = segment(handle);
+        int offset = offset(handle);
+        segment.putInt(offset + ROW, row);
+        segment.putInt(offset + COL, col);
+    }
+
+    @Override
+    public int getBirthStep(int handle) {
+        return segment(handle).getInt(offset(handle) + BIRTH);
+    }
+
+    @Override
+    public void setBirthStep(int handle, int step) {
+        segment(handle).putInt(offset(handle) + BIRTH, step);
+    }
+
+    @Override
+    public int getRecoveryStep(int handle) {
+        return segment(handle).getInt(offset(handle) + RECOVERY);
+    }
+
+    @Override
+    public void setRecoveryStep(int handle, int step) {
+        segment(handle).putInt(offset(handle) + RECOVERY, step);
+    }
+
+    @Override
+    public int getDeathStep(int handle) {
+        return segment(handle).getInt(offset(handle) + DEATH);
+    }
+
+    @Override
+    public void setDeathStep(int handle, int step) {
+        segment(handle).putInt(offset(handle) + DEATH, step);
+    }
+
+    @Override
+    public int getFlags(int handle) {
+        return segment(handle).get(offset(handle) + FLAGS);
+    }
+
+    @Override
+    public void setFlags(int handle, int flags) {
+        segment(handle).put(offset(handle) + FLAGS, (byte) flags);
+    }
+
+    @Override
+    protected void addSegment(int segment) {
+        long size = (long) (segmentMask + 1) << RECORD_SHIFT;
+        try {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, segment * size, size);
+            buffer.order(ByteOrder.nativeOrder());
+            MappedByteBuffer[] more = Arrays.copyOf(segments, segment + 1);
+            more[segment] = buffer;
+            segments = more;
+        }
+        catch(IOException e) {
+            throw new UncheckedIOException("Cannot grow the store of humans", e);
+        }
+    }
+
+    @Override
+    protected void clearState(int handle) {
+        MappedByteBuffer segment = segment(handle);
+        int offset = offset(handle);
+        for(int i = 0; i < 1 << RECORD_SHIFT; i += Long.BYTES) {
+            segment.putLong(offset + i, 0);
+        }
+    }
+
+    /** @return The mapped segment holding the record of a human */
+    private MappedByteBuffer segment(int handle) {
+        return segments[handle >>> SEGMENT_SHIFT];
+    }
+
+    /** @return The offset of the record of a human within its segment */
+    private int offset(int handle) {
+        return (handle & segmentMask) << RECORD_SHIFT;
+    }
+}
@@ -0,0 +1,61 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/** Serve LiveMetrics over HTTP in the text format of Prometheus, at /metrics on a port of
+ * the loopback address only. The server has a single thread of its own, so it never runs
+ * on the thread of the simulation */
+public class MetricsServer
+{
+    // The content type of the text format of Prometheus.
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    // The metrics served.
+    private final LiveMetrics metrics;
+    // The HTTP server.
+    private final HttpServer server;
+
+    /** Start serving metrics.
+     * @param metrics The metrics to serve.
+     * @param port The port, or 0 for any free port (see getPort).
+     * @throws IOException If the port cannot be used */
+    public MetricsServer(LiveMetrics metrics, int port) throws IOException {
+        this.metrics = metrics;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", this::handle);
+        server.start();
+    }
+
+    /** @return The port the metrics are served on */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /** Stop serving metrics */
+    public void stop() {
+        server.stop(0);
+    }
+
+    /** Answer a request for the metrics.
+     * @param exchange The request and its response */
+    private void handle(HttpExchange exchange) throws IOException {
+        try(exchange) {
+            if(!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            StringBuilder text = new StringBuilder(1024);
+            metrics.writePrometheus(text);
+            byte[] body = text.toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, body.length);
+            try(OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+}
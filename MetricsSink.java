@@ -0,0 +1,233 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.LockSupport;
+
+/** Record the statistics of a simulation at every step into a file: the step, population,
+ * infected, vaccinated, quarantined, births and deaths. As an observer of the simulation it
+ * copies the statistics into a ring buffer allocated up front, and a thread of its own
+ * drains the buffer to the file, so the steps never wait for I/O unless the writer falls a
+ * whole buffer behind.
+ *
+ * The file is either CSV with a header line, or binary: the magic "HSMT", the version and
+ * the number of values of a record as big-endian ints, then one record of ints per step */
+public class MetricsSink implements SimulatorObserver
+{
+    // The formats of the file.
+    public enum Format { CSV, BINARY }
+
+    // Identifies a binary file: "HSMT".
+    private static final int MAGIC = 0x48534D54;
+    // The version of the binary format.
+    private static final int VERSION = 1;
+    // The names of the values of a record.
+    private static final String[] COLUMNS = { "step", "population", "infected", "vaccinated",
+                                              "quarantined", "births", "deaths" };
+    // The number of values of a record.
+    private static final int VALUES = COLUMNS.length;
+    // The number of records the buffer holds, unless another number is given.
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+    // How long the writer sleeps when the buffer is empty, in nanoseconds.
+    private static final long IDLE_NANOS = 1_000_000;
+
+    // The records not yet written, record after record.
+    private final int[] buffer;
+    // The number of records the buffer holds, less one. The capacity is a power of two.
+    private final int mask;
+    // The number of records recorded so far. Only changed by the simulation thread.
+    private volatile long recorded;
+    // The number of records written so far. Only changed by the writer thread.
+    private volatile long written;
+    // Set when no more records will come.
+    private volatile boolean closed;
+    // The format of the file.
+    private final Format format;
+    // The file the records are written to.
+    private final OutputStream out;
+    // The thread draining the buffer into the file.
+    private final Thread writer;
+    // The first error writing the file, or null if there was none.
+    private volatile IOException failure;
+    // The number of times a step waited for the writer because the buffer was full.
+    private long stalls;
+
+    /** Create a sink writing to the given file.
+     * @param file The file to write.
+     * @param format The format of the file.
+     * @param capacity The least number of records the buffer holds.
+     * @param append Whether to add to the end of an existing file of the same format, e.g. when
+     *               a run is resumed from a checkpoint, rather than create or empty the file.
+     *               The steps between the checkpoint and the end of the file then appear twice.
+     * @throws IOException If the file cannot be created */
+    public MetricsSink(Path file, Format format, int capacity, boolean append) throws IOException {
+        if(capacity < 1 || capacity > 1 << 26) {
+            throw new IllegalArgumentException("The capacity must be from 1 to 2^26 records: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        size = Math.max(size, 1);
+        buffer = new int[size * VALUES];
+        mask = size - 1;
+        this.format = format;
+        boolean continued = append && Files.exists(file) && Files.size(file) > 0;
+        out = new BufferedOutputStream(continued
+                ? Files.newOutputStream(file, StandardOpenOption.APPEND)
+                : Files.newOutputStream(file), 1 << 16);
+        if(!continued) {
+            writeHeader();
+        }
+        writer = new Thread(this::drain, "metrics");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /** Create a sink writing to the given file, in CSV if its name ends with ".csv" and
+     * in binary otherwise.
+     * @param file The file to write.
+     * @param append Whether to add to the end of an existing file rather than empty it.
+     * @throws IOException If the file cannot be created */
+    public MetricsSink(Path file, boolean append) throws IOException {
+        this(file, file.getFileName().toString().endsWith(".csv") ? Format.CSV : Format.BINARY,
+                DEFAULT_CAPACITY, append);
+    }
+
+    @Override
+    public void stepCompleted(int step, Field field) {
+        long next = recorded;
+        while(next - written > mask) {
+            // The buffer is full: let the writer catch up.
+            stalls++;
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(IDLE_NANOS / 10);
+        }
+        FieldStats stats = field.getStats();
+        int at = (int) (next & mask) * VALUES;
+        buffer[at] = step;
+        buffer[at + 1] = stats.getPopulation();
+        buffer[at + 2] = stats.infectedCount();
+        buffer[at + 3] = stats.vaccinatedCount();
+        buffer[at + 4] = stats.quarantinedCount();
+        buffer[at + 5] = stats.birthCount();
+        buffer[at + 6] = stats.deadCount();
+        // Publishes the record to the writer.
+        recorded = next + 1;
+    }
+
+    /** Write the records still in the buffer, close the file and stop the writer.
+     * No more records may be recorded.
+     * @throws IOException If the file could not be written */
+    public void close() throws IOException {
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing the metrics", e);
+        }
+        if(failure != null) {
+            throw failure;
+        }
+    }
+
+    /** @return The number of records recorded so far */
+    public long getRecorded() {
+        return recorded;
+    }
+
+    /** @return The number of times a step waited because the buffer was full */
+    public long getStalls() {
+        return stalls;
+    }
+
+    /** Write records from the buffer to the file until the sink is closed.
+     * This is what the writer thread runs */
+    private void drain() {
+        try {
+            while(true) {
+                boolean last = closed;
+                long available = recorded;
+                long next = written;
+                if(next == available) {
+                    if(last) {
+                        break;
+                    }
+                    out.flush();
+                    LockSupport.parkNanos(IDLE_NANOS);
+                    continue;
+                }
+                for(; next < available; next++) {
+                    writeRecord((int) (next & mask) * VALUES);
+                }
+                written = next;
+            }
+            out.close();
+        }
+        catch(IOException e) {
+            failure = e;
+            // Keep consuming so that the simulation is never held up.
+            while(!closed || written != recorded) {
+                written = recorded;
+                LockSupport.parkNanos(IDLE_NANOS);
+            }
+        }
+    }
+
+    /** Write the start of the file */
+    private void writeHeader() throws IOException {
+        if(format == Format.CSV) {
+            out.write((String.join(",", COLUMNS) + "\n").getBytes(StandardCharsets.US_ASCII));
+        }
+        else {
+            DataOutputStream data = new DataOutputStream(out);
+            data.writeInt(MAGIC);
+            data.writeInt(VERSION);
+            data.writeInt(VALUES);
+        }
+    }
+
+    /** Write one record of the buffer to the file.
+     * @param at The index in the buffer of the first value of the record */
+    private void writeRecord(int at) throws IOException {
+        for(int i = 0; i < VALUES; i++) {
+            int value = buffer[at + i];
+            if(format == Format.CSV) {
+                if(i > 0) {
+                    out.write(',');
+                }
+                writeDecimal(value);
+            }
+            else {
+                out.write(value >>> 24);
+                out.write(value >>> 16);
+                out.write(value >>> 8);
+                out.write(value);
+            }
+        }
+        if(format == Format.CSV) {
+            out.write('\n');
+        }
+    }
+
+    /** Write an int in decimal without creating a String.
+     * @param value The value, which may be negative */
+    private void writeDecimal(int value) throws IOException {
+        if(value < 0) {
+            out.write('-');
+            if(value == Integer.MIN_VALUE) {
+                out.write("2147483648".getBytes(StandardCharsets.US_ASCII));
+                return;
+            }
+            value = -value;
+        }
+        if(value >= 10) {
+            writeDecimal(value / 10);
+        }
+        out.write('0' + value % 10);
+    }
+}
@@ -0,0 +1,138 @@
+/** A streaming summary of a distribution of values, from which any quantile can be estimated
+ * with a bounded relative error. Values are counted in buckets whose bounds grow
+ * geometrically, so the memory of a sketch is fixed when it is created, however many values
+ * are added. Two sketches with the same accuracy and range can be merged, e.g. sketches
+ * filled on different threads.
+ *
+ * A value v between 1 and the maximum is estimated within v * accuracy. Values below 1 that
+ * are not zero count as 1, and values above the maximum count as the maximum; zeros are
+ * counted exactly. The methods are synchronized, so a sketch can be shared by threads */
+public class QuantileSketch
+{
+    // The relative accuracy of the estimates.
+    private final double accuracy;
+    // The ratio of the upper and lower bounds of a bucket.
+    private final double gamma;
+    // The natural logarithm of gamma.
+    private final double logGamma;
+    // The largest value distinguished.
+    private final double maxValue;
+    // The number of values in each bucket: bucket i holds values up to gamma^i.
+    private final long[] buckets;
+    // The number of zeros added.
+    private long zeros;
+    // The number of values added.
+    private long count;
+    // The sum, smallest and largest of the values added, as they were given.
+    private double sum, min, max;
+
+    /** Create an empty sketch.
+     * @param accuracy The relative accuracy of the estimates, e.g. 0.01 for 1%.
+     * @param maxValue The largest value to distinguish, at least 1 */
+    public QuantileSketch(double accuracy, double maxValue) {
+        if(!(accuracy > 0 && accuracy < 1) || !(maxValue >= 1)) {
+            throw new IllegalArgumentException("Bad accuracy or maximum: " + accuracy + ", " + maxValue);
+        }
+        this.accuracy = accuracy;
+        this.maxValue = maxValue;
+        gamma = (1 + accuracy) / (1 - accuracy);
+        logGamma = Math.log(gamma);
+        buckets = new long[bucket(maxValue) + 1];
+        min = Double.POSITIVE_INFINITY;
+        max = Double.NEGATIVE_INFINITY;
+    }
+
+    /** Add a value to the sketch.
+     * @param value The value, at least zero */
+    public synchronized void add(double value) {
+        if(!(value >= 0)) {
+            throw new IllegalArgumentException("Values must be at least zero: " + value);
+        }
+        if(value == 0) {
+            zeros++;
+        }
+        else {
+            buckets[bucket(Math.min(Math.max(value, 1), maxValue))]++;
+        }
+        count++;
+        sum += value;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    /** Add all the values of another sketch to this one.
+     * @param other A sketch with the same accuracy and maximum */
+    public void merge(QuantileSketch other) {
+        if(other.accuracy != accuracy || other.maxValue != maxValue) {
+            throw new IllegalArgumentException("The sketches have different accuracies or maximums");
+        }
+        long[] otherBuckets;
+        long otherZeros, otherCount;
+        double otherSum, otherMin, otherMax;
+        synchronized(other) {
+            otherBuckets = other.buckets.clone();
+            otherZeros = other.zeros;
+            otherCount = other.count;
+            otherSum = other.sum;
+            otherMin = other.min;
+            otherMax = other.max;
+        }
+        synchronized(this) {
+            for(int i = 0; i < buckets.length; i++) {
+                buckets[i] += otherBuckets[i];
+            }
+            zeros += otherZeros;
+            count += otherCount;
+            sum += otherSum;
+            min = Math.min(min, otherMin);
+            max = Math.max(max, otherMax);
+        }
+    }
+
+    /** Estimate a quantile of the values added.
+     * @param q The quantile, from 0 for the smallest value to 1 for the largest.
+     * @return The estimate, or NaN if the sketch is empty */
+    public synchronized double quantile(double q) {
+        if(!(q >= 0 && q <= 1)) {
+            throw new IllegalArgumentException("The quantile must be from 0 to 1: " + q);
+        }
+        if(count == 0) {
+            return Double.NaN;
+        }
+        if(q == 0) {
+            return min;
+        }
+        if(q == 1) {
+            return max;
+        }
+        long rank = (long) (q * (count - 1));
+        if(rank < zeros) {
+            return 0;
+        }
+        long seen = zeros;
+        for(int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if(seen > rank) {
+                // The middle of the bucket, within the accuracy of both of its bounds.
+                double estimate = 2 * Math.pow(gamma, i) / (gamma + 1);
+                return Math.min(Math.max(estimate, min), max);
+            }
+        }
+        return max;
+    }
+
+    /** @return The number of values added */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /** @return The mean of the values added, or NaN if the sketch is empty */
+    public synchronized double getMean() {
+        return count > 0 ? sum / count : Double.NaN;
+    }
+
+    /** @return The bucket of a value from 1 to maxValue */
+    private int bucket(double value) {
+        return (int) Math.ceil(Math.log(value) / logGamma - 1e-9);
+    }
+}
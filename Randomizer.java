@@ -1,37 +1,141 @@
-import java.util.Random;
+import java.util.random.RandomGenerator;
+import java.util.random.RandomGeneratorFactory;
 
-/** Provide control over the randomization of the simulation. By using the shared, fixed-seed
- * randomizer, repeated runs will perform exactly the same (which helps with testing). Set
- * 'useShared' to false to get different random behaviour every time */
+/** Provide control over the randomization of the simulation. Every random generator is derived
+ * from one seed, so repeated runs with the same seed perform exactly the same (which helps with
+ * testing). The seed and the algorithm can be set with the system properties "simulation.seed"
+ * and "simulation.random", or with setSeed and setAlgorithm. Without a seed every run is different.
+ *
+ * The simulation draws from streams: independent generators identified by a step and an index,
+ * e.g. the index of a tile. A stream belongs to whoever asked for it, so threads never share a
+ * generator, and the numbers drawn do not depend on how the work was scheduled */
 public class Randomizer
 {
-    // The default seed for control of randomization.
-    private static final int SEED = 1111;
-    // A shared Random object, if required.
-    private static final Random rand = new Random(SEED);
-    // Determine whether a shared random generator is to be provided.
-    private static final boolean useShared = false;
+    // The default algorithm: a fast LXM generator with good statistical quality.
+    private static final String DEFAULT_ALGORITHM = "L64X128MixRandom";
+    // The number of values a stream generates at a time.
+    private static final int BUFFER_SIZE = 128;
+
+    // The seed every generator is derived from.
+    private static long seed;
+    // Creates the generators of the chosen algorithm.
+    private static RandomGeneratorFactory<RandomGenerator> factory;
+    // A shared generator, for the occasional draws outside of a step.
+    private static RandomGenerator shared;
+
+    static {
+        String algorithm = System.getProperty("simulation.random", DEFAULT_ALGORITHM);
+        factory = RandomGeneratorFactory.of(algorithm);
+        Long configured = Long.getLong("simulation.seed");
+        setSeed(configured != null ? configured : System.nanoTime() ^ mix(System.currentTimeMillis()));
+    }
 
     /** Constructor for objects of class Randomize */
     public Randomizer() {}
 
-    /** Provide a random generator.
-     * @return A random object */
-    public static Random getRandom() {
-        if(useShared) {
-            return rand;
-        }
-        else {
-            return new Random();
+    /** Provide the shared random generator. It is not thread safe, and should only be used
+     * for draws outside of the steps, which use streams instead.
+     * @return The shared generator */
+    public static RandomGenerator getRandom() {
+        return shared;
+    }
+
+    /** Provide one of the streams of random numbers. The same step and index always give
+     * the same numbers for the same seed and algorithm. The generator draws its numbers in
+     * blocks, so it must not be shared between threads.
+     * @param step The step of the simulation the stream is for.
+     * @param index Which of the streams of the step, e.g. the index of a tile.
+     * @return A new generator for the stream */
+    public static BufferedRandom getStream(long step, long index) {
+        return getStream(factory, seed, step, index);
+    }
+
+    /** Provide one of the streams of random numbers of a given algorithm and seed rather than
+     * those of the Randomizer, e.g. for one of several simulations run at once with different
+     * seeds, or one restored from a checkpoint.
+     * @param algorithm The factory of the generators of the algorithm, see getFactory.
+     * @param streamSeed The seed the stream is derived from.
+     * @param step The step of the simulation the stream is for.
+     * @param index Which of the streams of the step, e.g. the index of a tile.
+     * @return A new generator for the stream */
+    public static BufferedRandom getStream(RandomGeneratorFactory<RandomGenerator> algorithm, long streamSeed,
+                                           long step, long index) {
+        return new BufferedRandom(algorithm.create(mix(streamSeed + mix(step) * 31 + index)), BUFFER_SIZE);
+    }
+
+    /** Start a generator made by getStream over as another stream, which gives the same
+     * numbers as a new one from getStream but keeps the buffer, for the streams drawn at
+     * every step.
+     * @param stream The generator to start over.
+     * @param algorithm The factory of the generators of the algorithm, see getFactory.
+     * @param streamSeed The seed the stream is derived from.
+     * @param step The step of the simulation the stream is for.
+     * @param index Which of the streams of the step, e.g. the index of a tile */
+    public static void reseed(BufferedRandom stream, RandomGeneratorFactory<RandomGenerator> algorithm,
+                              long streamSeed, long step, long index) {
+        stream.reset(algorithm.create(mix(streamSeed + mix(step) * 31 + index)));
+    }
+
+    /** Fill an array with uniform numbers from 0 (inclusive) to 1 (exclusive), the i-th of
+     * which depends only on the seed, step, index and i. Unlike the streams they do not
+     * depend on the algorithm: each number is the SplitMix64 finalizer of a counter, so that
+     * the loop has no state carried from one number to the next and the JIT can unroll it.
+     * @param streamSeed The seed the numbers are derived from.
+     * @param step The step of the simulation the numbers are for.
+     * @param index Which of the sets of numbers of the step.
+     * @param values The array to fill.
+     * @param count The number of values to fill, from the start of the array */
+    public static void fillUniform(long streamSeed, long step, long index, double[] values, int count) {
+        long key = mix(streamSeed + mix(step) * 31 + index);
+        for(int i = 0; i < count; i++) {
+            values[i] = (mix(key + (i + 1) * 0x9E3779B97F4A7C15L) >>> 11) * 0x1.0p-53;
         }
     }
 
-    /** Reset the randomization.
-     * This will have no effect if randomization is not through a shared Random generator */
+    /** Derive everything random from the given seed from now on, so that a run can be repeated exactly.
+     * @param newSeed The seed */
+    public static void setSeed(long newSeed) {
+        seed = newSeed;
+        reset();
+    }
+
+    /** @return The seed every generator is derived from */
+    public static long getSeed() {
+        return seed;
+    }
+
+    /** Choose the algorithm of the generators and simulations made from now on. A simulation
+     * keeps the algorithm it was made with, so this does not change those already made.
+     * @param algorithm The name of an algorithm of java.util.random, e.g. "L64X128MixRandom"
+     * @throws IllegalArgumentException If there is no such algorithm */
+    public static void setAlgorithm(String algorithm) {
+        factory = RandomGeneratorFactory.of(algorithm);
+        reset();
+    }
+
+    /** @return The name of the algorithm of the generators */
+    public static String getAlgorithm() {
+        return factory.name();
+    }
+
+    /** @return The factory of the generators of the chosen algorithm, for a simulation to
+     * keep its own algorithm */
+    public static RandomGeneratorFactory<RandomGenerator> getFactory() {
+        return factory;
+    }
+
+    /** Reset the randomization: the shared generator starts again from the seed */
     public static void reset() {
-        if(useShared) {
-            rand.setSeed(SEED);
-        }
+        shared = factory.create(seed);
     }
-}
 
+    /** Scramble the bits of a value (the finalizer of SplitMix64), so that
+     * seeds that are close together give unrelated streams.
+     * @param z The value.
+     * @return A well mixed value */
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
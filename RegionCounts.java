@@ -0,0 +1,234 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/** Counts of the humans of a field in any rectangle of positions, e.g. a district, or the
+ * square of positions within some distance of one. For each of the population, the
+ * infected and the vaccinated it keeps a summed-area table: the number of such humans above
+ * and to the left of every position. Any rectangle is then counted from four entries of
+ * the table, however large it is.
+ *
+ * The tables are built from the field in one pass, rows in parallel and then strips of
+ * columns in parallel, and show the field as it was then (see Field.getRegionCounts). The
+ * sums along each row are kept, so bringing the tables up to date only reads the rows of
+ * the field that changed, and only adds up the rows from the first of them down */
+public class RegionCounts
+{
+    // The kinds of humans counted.
+    public static final int POPULATION = 0;
+    public static final int INFECTED = 1;
+    public static final int VACCINATED = 2;
+    // The number of kinds of humans counted.
+    public static final int KINDS = 3;
+
+    // The number of columns of a strip summed down by one task.
+    private static final int STRIP_WIDTH = 64;
+
+    // The depth and width of the field.
+    private final int depth, width;
+    // For each kind, the number of humans of the kind in the rows above and the columns to
+    // the left of each position, in depth + 1 rows of width + 1 entries.
+    private final int[][] tables;
+    // For each kind, the number of humans of the kind to the left of each position in its
+    // row, laid out like the tables.
+    private final int[][] rowSums;
+    // Scratch space: whether each row has changed since the tables were built.
+    private final boolean[] changedRows;
+
+    /** Create empty tables for a field of the given size.
+     * @param depth The depth of the field.
+     * @param width The width of the field */
+    public RegionCounts(int depth, int width) {
+        if((long) (depth + 1) * (width + 1) > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("The field is too large: " + depth + "x" + width);
+        }
+        this.depth = depth;
+        this.width = width;
+        tables = new int[KINDS][(depth + 1) * (width + 1)];
+        rowSums = new int[KINDS][(depth + 1) * (width + 1)];
+        changedRows = new boolean[depth];
+    }
+
+    /** Count the humans of a field again. It must not be changing while this runs.
+     * @param field The field, of the size of the tables */
+    public void build(Field field) {
+        checkSize(field.getDepth(), field.getWidth());
+        Arrays.fill(changedRows, true);
+        recount(field, 0);
+    }
+
+    /** Bring the tables up to date with the changes of a field since they were built. It
+     * must not be changing while this runs.
+     * @param field The field, of the size of the tables.
+     * @param changes The positions of the field that changed since the tables were built */
+    public void update(Field field, ChangeJournal changes) {
+        checkSize(field.getDepth(), field.getWidth());
+        checkSize(changes.getDepth(), changes.getWidth());
+        Arrays.fill(changedRows, false);
+        changes.getRows(changedRows);
+        int first = 0;
+        while(first < depth && !changedRows[first]) {
+            first++;
+        }
+        if(first < depth) {
+            recount(field, first);
+        }
+    }
+
+    /** Count the humans of one kind in a rectangle. The parts of the rectangle outside the
+     * field are ignored.
+     * @param kind POPULATION, INFECTED or VACCINATED.
+     * @param top The first row of the rectangle.
+     * @param left The first column of the rectangle.
+     * @param bottom The last row of the rectangle.
+     * @param right The last column of the rectangle.
+     * @return The number of humans of the kind in the rectangle */
+    public int count(int kind, int top, int left, int bottom, int right) {
+        top = Math.max(top, 0);
+        left = Math.max(left, 0);
+        bottom = Math.min(bottom, depth - 1);
+        right = Math.min(right, width - 1);
+        if(top > bottom || left > right) {
+            return 0;
+        }
+        int[] table = tables[kind];
+        int stride = width + 1;
+        int upper = top * stride, lower = (bottom + 1) * stride;
+        return table[lower + right + 1] - table[upper + right + 1] - table[lower + left] + table[upper + left];
+    }
+
+    /** Count the humans of one kind within some distance of a position, i.e. in the square
+     * of positions at most that many rows and columns away from it.
+     * @param kind POPULATION, INFECTED or VACCINATED.
+     * @param row The row of the position.
+     * @param col The column of the position.
+     * @param radius The distance, 1 for the position and its eight neighbours.
+     * @return The number of humans of the kind around the position, including it */
+    public int countAround(int kind, int row, int col, int radius) {
+        return count(kind, row - radius, col - radius, row + radius, col + radius);
+    }
+
+    /** Count every kind of human in each of a list of regions.
+     * @param regions The regions.
+     * @return For each region, the number of humans of each kind, indexed by kind */
+    public int[][] report(List<Region> regions) {
+        int[][] counts = new int[regions.size()][KINDS];
+        for(int i = 0; i < counts.length; i++) {
+            Region region = regions.get(i);
+            for(int kind = 0; kind < KINDS; kind++) {
+                counts[i][kind] = count(kind, region.getTop(), region.getLeft(), region.getBottom(), region.getRight());
+            }
+        }
+        return counts;
+    }
+
+    /** @return The depth of the field counted */
+    public int getDepth() {
+        return depth;
+    }
+
+    /** @return The width of the field counted */
+    public int getWidth() {
+        return width;
+    }
+
+    /** Sum the changed rows along their columns, then add up the rows from a given one down.
+     * @param field The field.
+     * @param first The first row that changed */
+    private void recount(Field field, int first) {
+        int stride = width + 1;
+        int[] population = rowSums[POPULATION];
+        int[] infected = rowSums[INFECTED];
+        int[] vaccinated = rowSums[VACCINATED];
+        // Sum each changed row along its columns.
+        IntStream.range(first, depth).parallel().filter(row -> changedRows[row]).forEach(row -> {
+            int base = (row + 1) * stride;
+            int people = 0, sick = 0, immune = 0;
+            for(int col = 0; col < width; col++) {
+                Human human = field.getObjectAt(row, col);
+                if(human != null) {
+                    people++;
+                    if(human.isInfected()) {
+                        sick++;
+                    }
+                    if(human.isVaccinated()) {
+                        immune++;
+                    }
+                }
+                population[base + col + 1] = people;
+                infected[base + col + 1] = sick;
+                vaccinated[base + col + 1] = immune;
+            }
+        });
+        // Then add up the rows, a strip of columns at a time.
+        IntStream.range(0, (stride + STRIP_WIDTH - 1) / STRIP_WIDTH).parallel().forEach(strip -> {
+            int from = strip * STRIP_WIDTH;
+            int to = Math.min(stride, from + STRIP_WIDTH);
+            for(int kind = 0; kind < KINDS; kind++) {
+                int[] table = tables[kind];
+                int[] sums = rowSums[kind];
+                for(int row = first + 1; row <= depth; row++) {
+                    int base = row * stride;
+                    for(int col = from; col < to; col++) {
+                        table[base + col] = table[base - stride + col] + sums[base + col];
+                    }
+                }
+            }
+        });
+    }
+
+    /** Check that a field is of the size of the tables */
+    private void checkSize(int fieldDepth, int fieldWidth) {
+        if(fieldDepth != depth || fieldWidth != width) {
+            throw new IllegalArgumentException("The field is not " + depth + "x" + width);
+        }
+    }
+
+    /** A named rectangle of positions, e.g. a district of the field */
+    public static class Region
+    {
+        // The name of the region.
+        private final String name;
+        // The first and last rows and columns of the region.
+        private final int top, left, bottom, right;
+
+        /** Create a region.
+         * @param name The name of the region.
+         * @param top The first row of the region.
+         * @param left The first column of the region.
+         * @param bottom The last row of the region.
+         * @param right The last column of the region */
+        public Region(String name, int top, int left, int bottom, int right) {
+            this.name = name;
+            this.top = top;
+            this.left = left;
+            this.bottom = bottom;
+            this.right = right;
+        }
+
+        /** @return The name of the region */
+        public String getName() {
+            return name;
+        }
+
+        /** @return The first row of the region */
+        public int getTop() {
+            return top;
+        }
+
+        /** @return The first column of the region */
+        public int getLeft() {
+            return left;
+        }
+
+        /** @return The last row of the region */
+        public int getBottom() {
+            return bottom;
+        }
+
+        /** @return The last column of the region */
+        public int getRight() {
+            return right;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** A JDK Flight Recorder event for showing a snapshot of a field in a SimulatorView.
+ * Its duration is the time taken to show the statistics and to draw the field */
+@Name("simulation.Render")
+@Label("Simulation Render")
+@Category("Simulation")
+@Description("Showing a snapshot of the field in the window")
+public class RenderEvent extends Event
+{
+    @Label("Step")
+    int step;
+
+    @Label("Positions")
+    @Description("The number of positions drawn")
+    int positions;
+}
@@ -1,12 +1,186 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
 /** Here is the main method in which, a Simulator subject gets created
- * so that the program can run */
+ * so that the program can run. Without arguments the simulation is shown
+ * in a SimulatorView; with arguments it runs as a batch job without any display.
+ * A batch run keeps its field in memory-mapped files outside of the heap when the
+ * system property simulation.mappedDir names the directory for them. It writes
+ * checkpoints to the file named by simulation.checkpoint, every
+ * simulation.checkpointInterval steps, and resumes from that file if it exists.
+ * The statistics of every step are written to the file named by simulation.metrics,
+ * as CSV if its name ends with .csv and in binary otherwise (see MetricsSink).
+ * What happens to every human is recorded in the file named by simulation.trace, with a
+ * keyframe every simulation.traceKeyframes steps, to be played back by TracePlayer.
+ * If simulation.stopWhenSettled is true the run stops early once it has settled (see
+ * SteadyStateDetector), over a window of simulation.settleWindow steps and within a
+ * tolerance of simulation.settleTolerance.
+ * If simulation.vectorHealth is true the quarantine and vaccination of every step are
+ * updated with the Vector API (see VectorHealth), for which the JVM must be started with
+ * --add-modules jdk.incubator.vector.
+ *
+ * Either way the live metrics of the simulation (see LiveMetrics) are registered with
+ * JMX, and served to Prometheus on the loopback address when the system property
+ * simulation.metricsPort gives a port for them (0 for any free port) */
 public class Run
 {
+    // How the batch mode is used.
+    private static final String USAGE = "usage: java [--add-modules jdk.incubator.vector -Dsimulation.vectorHealth=true]"
+            + " Run [<width> <depth> <steps> <seed> <output file> [<threads> [<tile size>]]]";
+    // The tile size of a parallel batch run, unless one is given.
+    private static final int DEFAULT_TILE_SIZE = 32;
+    // The number of steps between two checkpoints of a batch run, unless one is given.
+    private static final int DEFAULT_CHECKPOINT_INTERVAL = 100;
 
     /** the Main method that creates a Simulator subject
-     * @param args the arguments of the main */
+     * @param args Nothing for the graphical simulation, or the width, depth,
+     *             number of steps, random seed and output file of a batch run */
     public static void main(String[] args){
+        if(args.length == 0) {
+            Simulator simulator = new Simulator();
+            try {
+                startLiveMetrics(simulator);
+            }
+            catch(IOException e) {
+                System.err.println("Cannot serve the live metrics: " + e.getMessage());
+            }
+            new SimulatorView(simulator);
+        }
+        else if(args.length >= 5 && args.length <= 7) {
+            try {
+                int threads = args.length > 5 ? Integer.parseInt(args[5]) : 1;
+                int tileSize = args.length > 6 ? Integer.parseInt(args[6]) : DEFAULT_TILE_SIZE;
+                runBatch(Integer.parseInt(args[0]), Integer.parseInt(args[1]), Integer.parseInt(args[2]),
+                        Long.parseLong(args[3]), args[4], threads, tileSize);
+            }
+            catch(IllegalArgumentException e) {
+                System.err.println(e.getMessage());
+                System.err.println(USAGE);
+                System.exit(2);
+            }
+            catch(IOException e) {
+                System.err.println("Cannot run the batch: " + e.getMessage());
+                System.exit(1);
+            }
+        }
+        else {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+    }
+
+    /** Register the live metrics of a simulation with JMX and, if the system property
+     * simulation.metricsPort is set, serve them over HTTP.
+     * @param simulator The simulation.
+     * @return The server of the metrics, or null if they are not served
+     * @throws IOException If the metrics cannot be registered or served */
+    private static MetricsServer startLiveMetrics(Simulator simulator) throws IOException {
+        LiveMetrics live = new LiveMetrics(simulator);
+        live.registerMBean();
+        Integer port = Integer.getInteger("simulation.metricsPort");
+        if(port == null) {
+            return null;
+        }
+        MetricsServer server = new MetricsServer(live, port);
+        System.out.println("Serving metrics at http://localhost:" + server.getPort() + "/metrics");
+        return server;
+    }
+
+    /** Run a simulation without a display, write its final statistics to a file
+     * and print the throughput that was achieved.
+     * @param width The width of the field.
+     * @param depth The depth of the field.
+     * @param steps The number of steps to run for.
+     * @param seed The seed of the random generators, so the run can be repeated.
+     * @param output The file the final statistics are written to.
+     * @param threads The number of threads to step on.
+     * @param tileSize The tile size of a parallel run */
+    public static void runBatch(int width, int depth, int steps, long seed, String output,
+                                int threads, int tileSize) throws IOException {
+        Randomizer.setSeed(seed);
+        String mappedDir = System.getProperty("simulation.mappedDir");
+        Simulator sim = mappedDir == null ? new Simulator(depth, width)
+                : new Simulator(Field.mapped(depth, width, Path.of(mappedDir)), SimulationConfig.DEFAULT, seed);
+        sim.setParallelism(threads, tileSize);
+        String checkpointFile = System.getProperty("simulation.checkpoint");
+        CheckpointWriter checkpoints = null;
+        boolean resumed = false;
+        if(checkpointFile != null) {
+            Path checkpoint = Path.of(checkpointFile);
+            if(Files.exists(checkpoint)) {
+                sim.restore(Checkpoint.read(checkpoint));
+                resumed = true;
+                System.out.println("Resumed from step " + sim.getStep() + " of " + checkpoint);
+            }
+            checkpoints = new CheckpointWriter(sim, checkpoint,
+                    Integer.getInteger("simulation.checkpointInterval", DEFAULT_CHECKPOINT_INTERVAL));
+        }
+        String metricsFile = System.getProperty("simulation.metrics");
+        MetricsSink metrics = null;
+        if(metricsFile != null) {
+            metrics = new MetricsSink(Path.of(metricsFile), resumed);
+            sim.addObserver(metrics);
+            if(!resumed) {
+                // Record the starting state as well.
+                metrics.stepCompleted(sim.getStep(), sim.getField());
+            }
+        }
+        String traceFile = System.getProperty("simulation.trace");
+        TraceRecorder trace = null;
+        if(traceFile != null) {
+            trace = new TraceRecorder(Path.of(traceFile),
+                    Integer.getInteger("simulation.traceKeyframes", TraceRecorder.DEFAULT_KEYFRAME_INTERVAL), resumed);
+            sim.addObserver(trace);
+            if(!resumed) {
+                trace.stepCompleted(sim.getStep(), sim.getField());
+            }
+        }
+
+        SteadyStateDetector settled = null;
+        if(Boolean.getBoolean("simulation.stopWhenSettled")) {
+            settled = new SteadyStateDetector(
+                    Integer.getInteger("simulation.settleWindow", SteadyStateDetector.DEFAULT_WINDOW),
+                    Double.parseDouble(System.getProperty("simulation.settleTolerance",
+                            String.valueOf(SteadyStateDetector.DEFAULT_TOLERANCE))));
+            sim.setStopCondition(settled);
+        }
+
+        MetricsServer server = startLiveMetrics(sim);
+        int firstStep = sim.getStep();
+        long firstUpdates = sim.getHumanUpdates();
+        long start = System.nanoTime();
+        sim.simulate(steps - firstStep);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        if(checkpoints != null) {
+            checkpoints.close();
+        }
+        if(metrics != null) {
+            metrics.close();
+        }
+        if(trace != null) {
+            trace.close();
+            System.out.println("Traced " + trace.getRecords() + " steps in " + trace.getBytes() + " bytes");
+        }
+        if(server != null) {
+            server.stop();
+        }
 
-        Simulator sim = new Simulator();
+        if(settled != null && settled.isSettled()) {
+            System.out.println("Stopped early: " + settled.describe());
+        }
+        FieldStats stats = sim.getField().getStats();
+        try(PrintWriter out = new PrintWriter(new FileWriter(output))) {
+            out.println("width,depth,steps,seed,population,infected,vaccinated,dead,seconds");
+            out.println(width + "," + depth + "," + sim.getStep() + "," + seed + ","
+                    + stats.getPopulation() + "," + stats.infectedCount() + ","
+                    + stats.vaccinatedCount() + "," + stats.deadCount() + "," + seconds);
+        }
+        System.out.printf("%d steps in %.3f s: %.1f steps/sec, %.0f agent-updates/sec%n",
+                sim.getStep() - firstStep, seconds, (sim.getStep() - firstStep) / seconds,
+                (sim.getHumanUpdates() - firstUpdates) / seconds);
+        System.out.printf("Fingerprint of the field: %016x%n", sim.getField().getFingerprint());
     }
 }
@@ -0,0 +1,216 @@
+/** The parameters of a simulation: how the humans age, breed, get infected, get vaccinated,
+ * go into quarantine and die, and how densely the field is populated. A configuration never
+ * changes once made: its fields are final, and with builds a new configuration with one
+ * parameter changed, so that one JVM can run simulations of many configurations at once
+ * (see SweepRunner).
+ *
+ * The humans read their configuration from their field once per step (see Human.move), and
+ * the JIT keeps its values in registers for the rest of the step */
+public class SimulationConfig
+{
+    // The configuration the simulation was written with.
+    public static final SimulationConfig DEFAULT = new SimulationConfig();
+
+    // The names of the parameters, as used by with.
+    private static final String[] PARAMETERS = { "breedingAge", "maxBreedingAge", "maxAge",
+            "breedingProbability", "maxLitterSize", "infectingProbability", "infectedProbability",
+            "vaccinatingProbability", "quarantineProbability", "unsafeProbability",
+            "deathProbability", "creationProbability" };
+
+    // The age at which a human can start to breed.
+    private final int breedingAge;
+    // The age at which a human stops breeding.
+    private final int maxBreedingAge;
+    // The age to which a human can live.
+    private final int maxAge;
+    // The likelihood of a human breeding.
+    private final double breedingProbability;
+    // The maximum number of births.
+    private final int maxLitterSize;
+    // The probability of a human's infection.
+    private final double infectingProbability;
+    // The probability of a human's start simulation infected.
+    private final double infectedProbability;
+    // The probability of someone getting vaccinated.
+    private final double vaccinatingProbability;
+    // The probability an infected person get in quarantine.
+    private final double quarantineProbability;
+    // The probability of someone vaccinated getting infected.
+    private final double unsafeProbability;
+    // The likelihood of an infected human get deceased.
+    private final double deathProbability;
+    // The probability that a human will be created in any given position.
+    private final double creationProbability;
+
+    /** Create the default configuration */
+    private SimulationConfig() {
+        breedingAge = 27;
+        maxBreedingAge = 40;
+        maxAge = 80;
+        breedingProbability = 0.23;
+        maxLitterSize = 1;
+        infectingProbability = 1;
+        infectedProbability = 0.7;
+        vaccinatingProbability = 0.05;
+        quarantineProbability = 0.2;
+        unsafeProbability = 0.1;
+        deathProbability = 0.065;
+        creationProbability = 0.055;
+    }
+
+    /** Copy a configuration with one parameter changed.
+     * @param other The configuration to copy.
+     * @param parameter The name of the parameter to change, which must be one of PARAMETERS.
+     * @param value The new value of the parameter */
+    private SimulationConfig(SimulationConfig other, String parameter, double value) {
+        breedingAge = parameter.equals("breedingAge") ? whole(parameter, value, 0) : other.breedingAge;
+        maxBreedingAge = parameter.equals("maxBreedingAge") ? whole(parameter, value, 0) : other.maxBreedingAge;
+        maxAge = parameter.equals("maxAge") ? whole(parameter, value, 0) : other.maxAge;
+        breedingProbability = parameter.equals("breedingProbability")
+                ? probability(parameter, value) : other.breedingProbability;
+        maxLitterSize = parameter.equals("maxLitterSize") ? whole(parameter, value, 1) : other.maxLitterSize;
+        infectingProbability = parameter.equals("infectingProbability")
+                ? probability(parameter, value) : other.infectingProbability;
+        infectedProbability = parameter.equals("infectedProbability")
+                ? probability(parameter, value) : other.infectedProbability;
+        vaccinatingProbability = parameter.equals("vaccinatingProbability")
+                ? probability(parameter, value) : other.vaccinatingProbability;
+        quarantineProbability = parameter.equals("quarantineProbability")
+                ? probability(parameter, value) : other.quarantineProbability;
+        unsafeProbability = parameter.equals("unsafeProbability")
+                ? probability(parameter, value) : other.unsafeProbability;
+        deathProbability = parameter.equals("deathProbability")
+                ? probability(parameter, value) : other.deathProbability;
+        creationProbability = parameter.equals("creationProbability")
+                ? probability(parameter, value) : other.creationProbability;
+    }
+
+    /** Make a copy of this configuration with one parameter changed.
+     * @param parameter The name of the parameter, e.g. "deathProbability" (see getParameters).
+     * @param value The new value. Ages and litter sizes must be whole numbers.
+     * @return The new configuration
+     * @throws IllegalArgumentException If there is no such parameter or the value is out of range */
+    public SimulationConfig with(String parameter, double value) {
+        // Fails if there is no such parameter.
+        get(parameter);
+        return new SimulationConfig(this, parameter, value);
+    }
+
+    /** @return The names of the parameters that can be changed with with */
+    public static String[] getParameters() {
+        return PARAMETERS.clone();
+    }
+
+    /** @param parameter The name of a parameter.
+     * @return The value of the parameter */
+    public double get(String parameter) {
+        switch(parameter) {
+            case "breedingAge": return breedingAge;
+            case "maxBreedingAge": return maxBreedingAge;
+            case "maxAge": return maxAge;
+            case "breedingProbability": return breedingProbability;
+            case "maxLitterSize": return maxLitterSize;
+            case "infectingProbability": return infectingProbability;
+            case "infectedProbability": return infectedProbability;
+            case "vaccinatingProbability": return vaccinatingProbability;
+            case "quarantineProbability": return quarantineProbability;
+            case "unsafeProbability": return unsafeProbability;
+            case "deathProbability": return deathProbability;
+            case "creationProbability": return creationProbability;
+            default: throw new IllegalArgumentException("No such parameter: " + parameter);
+        }
+    }
+
+    /** @return The age at which a human can start to breed */
+    public int getBreedingAge() {
+        return breedingAge;
+    }
+
+    /** @return The age at which a human stops breeding */
+    public int getMaxBreedingAge() {
+        return maxBreedingAge;
+    }
+
+    /** @return The age to which a human can live */
+    public int getMaxAge() {
+        return maxAge;
+    }
+
+    /** @return The likelihood of a human breeding */
+    public double getBreedingProbability() {
+        return breedingProbability;
+    }
+
+    /** @return The maximum number of births */
+    public int getMaxLitterSize() {
+        return maxLitterSize;
+    }
+
+    /** @return The probability of a human's infection by a neighbour */
+    public double getInfectingProbability() {
+        return infectingProbability;
+    }
+
+    /** @return The probability of a human starting the simulation infected */
+    public double getInfectedProbability() {
+        return infectedProbability;
+    }
+
+    /** @return The probability of someone getting vaccinated */
+    public double getVaccinatingProbability() {
+        return vaccinatingProbability;
+    }
+
+    /** @return The probability an infected person gets in quarantine */
+    public double getQuarantineProbability() {
+        return quarantineProbability;
+    }
+
+    /** @return The probability of someone vaccinated getting infected */
+    public double getUnsafeProbability() {
+        return unsafeProbability;
+    }
+
+    /** @return The likelihood of an infected human dying */
+    public double getDeathProbability() {
+        return deathProbability;
+    }
+
+    /** @return The probability that a human is created in any given position */
+    public double getCreationProbability() {
+        return creationProbability;
+    }
+
+    /** @return The parameters that differ from the default configuration, e.g.
+     *          "deathProbability=0.1", or "default" */
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        for(String parameter : PARAMETERS) {
+            double value = get(parameter);
+            if(value != DEFAULT.get(parameter)) {
+                if(text.length() > 0) {
+                    text.append(' ');
+                }
+                text.append(parameter).append('=').append(value);
+            }
+        }
+        return text.length() > 0 ? text.toString() : "default";
+    }
+
+    /** Check the value of a probability */
+    private static double probability(String parameter, double value) {
+        if(!(value >= 0 && value <= 1)) {
+            throw new IllegalArgumentException(parameter + " must be from 0 to 1: " + value);
+        }
+        return value;
+    }
+
+    /** Check the value of an age or a count */
+    private static int whole(String parameter, double value, int least) {
+        if(!(value >= least) || value != Math.rint(value) || value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(parameter + " must be a whole number of at least " + least + ": " + value);
+        }
+        return (int) value;
+    }
+}
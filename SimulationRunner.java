@@ -0,0 +1,163 @@
+import java.util.function.Consumer;
+
+/** Run a simulation on a thread of its own, so that whoever controls it (e.g. the event
+ * thread of a SimulatorView) never waits for the steps. The runner can be told to run,
+ * pause, step, reset and stop. While it runs it publishes snapshots of the field, at
+ * most a given number of times per second, so the next step is computed while the last
+ * snapshot is painted and the simulation never waits for painting. The state the runner
+ * pauses at is always published, so the display ends on the current state. A snapshot
+ * only holds the locations that changed since the previous one, apart from the first */
+public class SimulationRunner implements SimulatorObserver
+{
+    // The number of snapshots published per second, unless another rate is given.
+    public static final int DEFAULT_FRAME_RATE = 30;
+    // The number of steps left when running until paused.
+    private static final long FOREVER = Long.MAX_VALUE;
+
+    // The simulation run. It is only used by the runner's thread.
+    private final Simulator simulator;
+    // Receives the snapshots, on the runner's thread.
+    private final Consumer<FieldSnapshot> display;
+    // The least time between two snapshots, in nanoseconds.
+    private final long frameInterval;
+    // When the last snapshot was published, by System.nanoTime.
+    private long lastFrame;
+    // Whether the state reached last has not been published.
+    private boolean unpublished;
+    // The locations changed since the last snapshot, starting with every location.
+    private final ChangeJournal changes;
+
+    // The requests to the runner, guarded by the runner itself.
+    // The number of steps still to run.
+    private long stepsLeft;
+    // Whether the simulation is to be reset.
+    private boolean resetRequested;
+    // Whether the runner has been stopped for good.
+    private boolean stopped;
+
+    /** Create a runner for a simulation, and start its thread. The runner is paused until
+     * told to run or step. It observes the simulation from now on, so the simulation must
+     * only be used through the runner.
+     * @param simulator The simulation to run.
+     * @param display Receives the snapshots of the field, on the runner's thread.
+     * @param frameRate The greatest number of snapshots published per second */
+    public SimulationRunner(Simulator simulator, Consumer<FieldSnapshot> display, int frameRate) {
+        if(frameRate <= 0) {
+            throw new IllegalArgumentException("The frame rate must be greater than zero: " + frameRate);
+        }
+        this.simulator = simulator;
+        this.display = display;
+        this.frameInterval = 1_000_000_000L / frameRate;
+        changes = new ChangeJournal(simulator.getField().getDepth(), simulator.getField().getWidth());
+        simulator.addObserver(this);
+        Thread thread = new Thread(this::runLoop, "simulation");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Run the given number of steps, or carry on until paused.
+     * @param steps The number of steps to run, or 0 to run until paused */
+    public synchronized void run(int steps) {
+        stepsLeft = steps > 0 ? steps : FOREVER;
+        notifyAll();
+    }
+
+    /** Run a single step, if the runner is paused */
+    public synchronized void step() {
+        if(stepsLeft == 0) {
+            stepsLeft = 1;
+            notifyAll();
+        }
+    }
+
+    /** Pause after the step being run, if any */
+    public synchronized void pause() {
+        stepsLeft = 0;
+    }
+
+    /** Pause, and reset the simulation to a starting position */
+    public synchronized void reset() {
+        stepsLeft = 0;
+        resetRequested = true;
+        notifyAll();
+    }
+
+    /** Stop the runner for good. Its thread ends after the step being run, if any */
+    public synchronized void stop() {
+        stopped = true;
+        notifyAll();
+    }
+
+    /** @return true if the runner is running steps, false if it is paused or stopped */
+    public synchronized boolean isRunning() {
+        return stepsLeft > 0 && !stopped;
+    }
+
+    /** Publish a snapshot of the field if the last one is old enough. This is called by the
+     * simulation, on the runner's thread, after every step and reset.
+     * @param step Which iteration step it is.
+     * @param field The field whose state has been reached */
+    @Override
+    public void stepCompleted(int step, Field field) {
+        changes.addAll(field.getChanges());
+        long now = System.nanoTime();
+        if(now - lastFrame >= frameInterval) {
+            publish(step, field);
+        }
+        else {
+            unpublished = true;
+        }
+    }
+
+    /** Publish a snapshot of the field.
+     * @param step Which iteration step it is.
+     * @param field The field whose state has been reached */
+    private void publish(int step, Field field) {
+        lastFrame = System.nanoTime();
+        unpublished = false;
+        FieldSnapshot snapshot = new FieldSnapshot(step, field, changes);
+        changes.clear();
+        display.accept(snapshot);
+    }
+
+    /** Wait for requests and carry them out, until stopped */
+    private void runLoop() {
+        // Show the state the simulation starts from.
+        unpublished = true;
+        while(true) {
+            boolean idle;
+            synchronized(this) {
+                idle = !stopped && !resetRequested && stepsLeft == 0;
+            }
+            if(idle && unpublished) {
+                // Make sure the display shows the state the runner pauses at.
+                publish(simulator.getStep(), simulator.getField());
+            }
+            boolean reset;
+            synchronized(this) {
+                while(!stopped && !resetRequested && stepsLeft == 0) {
+                    try {
+                        wait();
+                    }
+                    catch(InterruptedException e) {
+                        stopped = true;
+                    }
+                }
+                if(stopped) {
+                    return;
+                }
+                reset = resetRequested;
+                resetRequested = false;
+                if(!reset && stepsLeft != FOREVER) {
+                    stepsLeft--;
+                }
+            }
+            if(reset) {
+                simulator.reset();
+            }
+            else {
+                simulator.simulateOneStep();
+            }
+        }
+    }
+}
@@ -1,54 +1,175 @@
-import java.awt.event.ActionEvent;
-import java.awt.event.ActionListener;
-import java.util.Random;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.random.RandomGenerator;
+import java.util.random.RandomGeneratorFactory;
+import jdk.jfr.EventType;
 
-/** A simple predator-prey simulator, based on a rectangular field containing humans */
-public class Simulator implements ActionListener
+/** A simple predator-prey simulator, based on a rectangular field containing humans.
+ * The simulator has no display of its own: a SimulatorView, or any other
+ * SimulatorObserver, can be added to be told about every step */
+public class Simulator
 {
     // Constants representing configuration information for the simulation.
     // The default width for the grid.
     private static final int DEFAULT_WIDTH = 120;
     // The default depth of the grid.
     private static final int DEFAULT_DEPTH = 80;
-    // The probability that a human will be created in any given position.
-    private static final double HUMAN_CREATION_PROBABILITY = 0.055;
+    // The number of steps of a long simulation.
+    public static final int LONG_SIMULATION_STEPS = 200;
+    // The index of the random numbers of the quarantine and vaccination of a step, apart
+    // from the streams of the humans' moves (see Randomizer.fillUniform).
+    private static final long HEALTH_NUMBERS = -1;
+    // The type of the flight recorder event of a step, to tell whether one is wanted
+    // without creating it.
+    private static final EventType STEP_EVENT = EventType.getEventType(StepEvent.class);
+    // The parameters of this simulation.
+    private final SimulationConfig config;
+    // The seed the random streams of this simulation are derived from.
+    private long seed;
+    // The algorithm of the random streams of this simulation.
+    private RandomGeneratorFactory<RandomGenerator> algorithm;
     // List of humans in the field.
     public final List<Human> allHumans;
     // The current state of the field.
     private final Field field;
     // The current step of the simulation.
     private int step;
-    // A graphical view of the simulation.
-    private final SimulatorView view;
+    // The observers told about every step, e.g. a graphical view.
+    private final List<SimulatorObserver> observers;
+    // The number of human updates made since the last reset.
+    private long humanUpdates;
+    // The number of populations created so far, so that every reset draws a new one.
+    private int populations;
+    // Decides when simulate may stop early, or null to always run every step.
+    private SteadyStateDetector stopCondition;
+    // Performs the steps on several threads, or null to step on the calling thread.
+    private TiledStepper stepper;
+    // The humans born during a step on the calling thread.
+    private final List<Human> newBorn;
+    // The generator of the steps on the calling thread, started over as the stream of each.
+    private final BufferedRandom stream;
+    // The handles, flags, updated flags and random numbers of the living humans, for
+    // updateHealth.
+    private int[] handles = new int[0];
+    private long[] flags = new long[0], updated = new long[0];
+    private double[] uniforms = new double[0];
 
     /** Construct a simulation field with default size */
     public Simulator() {
+        this(DEFAULT_DEPTH, DEFAULT_WIDTH);
+    }
+
+    /** Create a simulation field with the given size.
+     * @param depth Depth of the field. Must be greater than zero.
+     * @param width Width of the field. Must be greater than zero */
+    public Simulator(int depth, int width) {
+        this(depth, width, SimulationConfig.DEFAULT);
+    }
+
+    /** Create a simulation field with the given size and initial density.
+     * @param depth Depth of the field. Must be greater than zero.
+     * @param width Width of the field. Must be greater than zero.
+     * @param creationProbability The probability a human is created in any given position */
+    public Simulator(int depth, int width, double creationProbability) {
+        this(depth, width, SimulationConfig.DEFAULT.with("creationProbability", creationProbability));
+    }
+
+    /** Create a simulation field with the given size and configuration, whose randomness is
+     * derived from the seed of the Randomizer.
+     * @param depth Depth of the field. Must be greater than zero.
+     * @param width Width of the field. Must be greater than zero.
+     * @param config The parameters of the simulation */
+    public Simulator(int depth, int width, SimulationConfig config) {
+        this(checkedField(depth, width), config, Randomizer.getSeed());
+    }
+
+    /** Create a simulation of the given field, e.g. one kept in memory-mapped files.
+     * Whatever the field holds is replaced by a new population. Simulations with their own
+     * fields, configurations and seeds can run on different threads at the same time.
+     * @param field The field of the simulation.
+     * @param config The parameters of the simulation.
+     * @param seed The seed the randomness of the simulation is derived from */
+    public Simulator(Field field, SimulationConfig config, long seed) {
+        this.config = config;
+        this.seed = seed;
+        algorithm = Randomizer.getFactory();
+        this.field = field;
+        field.setConfig(config);
         allHumans = new ArrayList<>();
-        field = new Field(DEFAULT_DEPTH, DEFAULT_WIDTH);
-        // Create a view of the state of each location in the field.
-        view = new SimulatorView(DEFAULT_DEPTH, DEFAULT_WIDTH);
+        newBorn = new ArrayList<>();
+        stream = Randomizer.getStream(algorithm, seed, 0, 0);
+        observers = new ArrayList<>();
         // Setup a valid starting point.
         reset();
+    }
+
+    /** Create a field on the heap of the given size.
+     * @param depth Depth of the field. Must be greater than zero.
+     * @param width Width of the field. Must be greater than zero.
+     * @return The field */
+    private static Field checkedField(int depth, int width) {
+        if(depth <= 0 || width <= 0) {
+            throw new IllegalArgumentException("The dimensions must be greater than zero: " + depth + "x" + width);
+        }
+        return new Field(depth, width);
+    }
+
+    /** Add an observer that will be told about the field after every step and reset.
+     * @param observer The observer to add */
+    public void addObserver(SimulatorObserver observer) {
+        observers.add(observer);
+    }
+
+    /** Choose how many threads perform the steps. With more than one thread the field is
+     * split into tiles that are updated in parallel (see TiledStepper), and the result
+     * depends on the tile size as well as on the seed.
+     * @param threads The number of threads, 1 to step on the calling thread.
+     * @param tileSize The number of rows and columns of a tile, when parallel */
+    public void setParallelism(int threads, int tileSize) {
+        if(stepper != null) {
+            stepper.shutdown();
+            stepper = null;
+        }
+        if(threads > 1) {
+            stepper = new TiledStepper(field, threads, tileSize);
+        }
+    }
+
+    /** Let simulate stop early once the simulation has settled, e.g. when the epidemic has
+     * died out. The detector is added to the observers, and told about the current state.
+     * @param detector Decides when the simulation has settled, or null to always run every
+     *                 step asked for */
+    public void setStopCondition(SteadyStateDetector detector) {
+        if(stopCondition != null) {
+            removeObserver(stopCondition);
+        }
+        stopCondition = detector;
+        if(detector != null) {
+            addObserver(detector);
+            detector.stepCompleted(step, field);
+        }
+    }
 
-        // the Action Listeners for the buttons
-        view.button1.addActionListener(this);
-        view.button2.addActionListener(this);
-        view.button3.addActionListener(this);
+    /** Remove an observer previously added.
+     * @param observer The observer to remove */
+    public void removeObserver(SimulatorObserver observer) {
+        observers.remove(observer);
     }
 
     /** Run the simulation from its current state for a reasonably long period (4000 steps) */
     public void runLongSimulation() {
-        simulate(200);
+        simulate(LONG_SIMULATION_STEPS);
     }
 
     /** Run the simulation for the given number of steps.
-     * Stop before the given number of steps if it ceases to be viable.
+     * Stop before the given number of steps if it has settled, when a stop condition has been
+     * set (see setStopCondition).
      * @param numSteps The number of steps to run for */
     public void simulate(int numSteps) {
         for(int step=1; step <= numSteps; step++) {
+            if(stopCondition != null && stopCondition.isSettled()) {
+                break;
+            }
             simulateOneStep();
             //delay(700);   // run more slowly
         }
@@ -57,42 +178,205 @@ public class Simulator implements ActionListener
     /** Run the simulation from its current state for a single step. Iterate
      * over the whole field updating the state of each fox and rabbit */
     public void simulateOneStep() {
+        // The event is only created while a recording wants it, so a step allocates
+        // nothing for it otherwise.
+        StepEvent event = STEP_EVENT.isEnabled() ? new StepEvent() : null;
+        boolean recorded = event != null && event.isEnabled();
+        FieldStats stats = field.getStats();
+        int births = 0, deaths = 0, infections = 0, crowded = 0;
+        if(recorded) {
+            births = stats.birthCount();
+            deaths = stats.deadCount();
+            infections = stats.infectionCount();
+            crowded = stats.crowdedCount();
+            event.moves = allHumans.size();
+            event.begin();
+        }
+        long started = recorded ? System.nanoTime() : 0;
         step++;
-        // Provide space for newborn humans.
-        List<Human> newBorn = new ArrayList<>();
-        // Let all humans act.
-        for(Iterator<Human> it = allHumans.iterator(); it.hasNext(); ) {
-            Human person = it.next();
-            person.move(newBorn);
-            if(! person.isAlive()) {
-                it.remove();
+        field.beginStep();
+        // Humans that grow too old, recover or die of an infection at this step do so first.
+        field.getSchedule().advance(step);
+        long scheduled = recorded ? System.nanoTime() : 0;
+        updateHealth();
+        long healed = recorded ? System.nanoTime() : 0;
+        humanUpdates += allHumans.size();
+        if(stepper != null) {
+            stepper.step(allHumans, algorithm, seed, step);
+        }
+        else {
+            Randomizer.reseed(stream, algorithm, seed, step, 0);
+            // Let all humans act.
+            int count = allHumans.size();
+            for(int i = 0; i < count; i++) {
+                allHumans.get(i).move(newBorn, stream);
+            }
+            field.getHumanStore().removeDead(allHumans);
+            // Add the newly born humans to the main list.
+            allHumans.addAll(newBorn);
+            newBorn.clear();
+        }
+        long moved = recorded ? System.nanoTime() : 0;
+        field.releaseEmptyChunks();
+        long cleaned = recorded ? System.nanoTime() : 0;
+        notifyObservers();
+        long observed = recorded ? System.nanoTime() : 0;
+        if(recorded) {
+            event.end();
+        }
+        if(recorded && event.shouldCommit()) {
+            event.step = step;
+            event.threads = stepper != null ? stepper.getThreads() : 1;
+            event.population = stats.getPopulation();
+            event.births = stats.birthCount() - births;
+            event.deaths = stats.deadCount() - deaths;
+            event.infections = stats.infectionCount() - infections;
+            event.crowded = stats.crowdedCount() - crowded;
+            event.scheduleTime = scheduled - started;
+            event.healthTime = healed - scheduled;
+            event.moveTime = moved - healed;
+            event.cleanupTime = cleaned - moved;
+            event.observerTime = observed - cleaned;
+            event.commit();
+        }
+    }
+
+    /** Put the infected humans into quarantine or out of it for the step, and vaccinate
+     * the others, all at once: their flags are gathered from the human store into an array,
+     * updated in bulk by Human.updateHealth into another, and written back where the two
+     * differ. The random numbers are drawn for the humans in the order they act, so they do
+     * not depend on the handles of the humans or on the number of threads */
+    private void updateHealth() {
+        HumanStore store = field.getHumanStore();
+        int size = allHumans.size();
+        if(handles.length < size) {
+            int length = Math.max(size, handles.length + (handles.length >> 1));
+            handles = new int[length];
+            flags = new long[length];
+            updated = new long[length];
+            uniforms = new double[length];
+        }
+        int count = 0;
+        for(int i = 0; i < size; i++) {
+            int handle = allHumans.get(i).getHandle();
+            if(handle >= 0) {
+                handles[count] = handle;
+                flags[count] = store.getFlags(handle);
+                count++;
+            }
+        }
+        Randomizer.fillUniform(seed, step, HEALTH_NUMBERS, uniforms, count);
+        Human.updateHealth(flags, uniforms, updated, count, config);
+        FieldStats stats = field.getStats();
+        for(int i = 0; i < count; i++) {
+            int before = (int) flags[i];
+            int after = (int) updated[i];
+            if(before != after) {
+                int handle = handles[i];
+                store.setFlags(handle, after);
+                if(((before ^ after) & HumanStore.QUARANTINE) != 0) {
+                    // Only infected humans change their quarantine.
+                    stats.quarantineChanged((after & HumanStore.QUARANTINE) != 0);
+                }
+                if(((before ^ after) & HumanStore.VACCINATED) != 0) {
+                    stats.vaccinationChanged(true);
+                }
+                int row = store.getRow(handle);
+                int col = store.getCol(handle);
+                field.flagsChanged(row, col, before, after);
+                field.humanChanged(row, col);
             }
         }
-        // Add the newly born humans to the main list.
-        allHumans.addAll(newBorn);
-        view.showStatus(step, field);
     }
 
-    /** Reset the simulation to a starting position. */
+    /** Reset the simulation to a starting position, with a new population. The first
+     * population depends only on the seed; each later one is drawn from a stream of its own,
+     * so that resetting the display starts a different run */
     public void reset() {
         step = 0;
+        humanUpdates = 0;
         allHumans.clear();
         populate();
-        // Show the starting state in the view.
-        view.showStatus(step, field);
+        // Show the starting state to the observers.
+        notifyObservers();
+    }
+
+    /** Take a checkpoint of the simulation, which can be written to a file while the
+     * simulation carries on. This must not be called while a step is running, e.g. from
+     * a SimulatorObserver.
+     * @return The checkpoint */
+    public Checkpoint checkpoint() {
+        return new Checkpoint(this);
+    }
+
+    /** Put the simulation back in the state of a checkpoint, including its seed and the
+     * algorithm of its random streams, so that it carries on exactly as it would have from
+     * the step of the checkpoint. The simulation must have the configuration the
+     * checkpoint was taken with.
+     * @param checkpoint The checkpoint, of a field of the same size as this one */
+    public void restore(Checkpoint checkpoint) {
+        if(checkpoint.getDepth() != field.getDepth() || checkpoint.getWidth() != field.getWidth()) {
+            throw new IllegalArgumentException("The checkpoint is of a " + checkpoint.getDepth() + "x"
+                    + checkpoint.getWidth() + " field, not " + field.getDepth() + "x" + field.getWidth());
+        }
+        algorithm = RandomGeneratorFactory.of(checkpoint.getAlgorithm());
+        seed = checkpoint.getSeed();
+        field.clear();
+        field.getSchedule().clear(checkpoint.getStep());
+        allHumans.clear();
+        checkpoint.restoreHumans(field, allHumans);
+        field.getStats().addHistory(checkpoint.getBirths(), checkpoint.getDeaths());
+        step = checkpoint.getStep();
+        humanUpdates = checkpoint.getHumanUpdates();
+        notifyObservers();
+    }
+
+    /** @return The parameters of the simulation */
+    public SimulationConfig getConfig() {
+        return config;
+    }
+
+    /** @return The seed the randomness of the simulation is derived from */
+    public long getSeed() {
+        return seed;
+    }
+
+    /** @return The name of the algorithm of the random streams of the simulation */
+    public String getAlgorithm() {
+        return algorithm.name();
+    }
+
+    /** @return The field of the simulation */
+    public Field getField() {
+        return field;
+    }
+
+    /** @return The current step of the simulation */
+    public int getStep() {
+        return step;
+    }
+
+    /** @return The number of human updates made since the last reset */
+    public long getHumanUpdates() {
+        return humanUpdates;
+    }
+
+    /** Tell every observer about the current state of the field */
+    private void notifyObservers() {
+        for(SimulatorObserver observer : observers) {
+            observer.stepCompleted(step, field);
+        }
     }
 
     /** Randomly populate the field with humans */
     private void populate() {
-        Random rand = Randomizer.getRandom();
+        RandomGenerator rand = Randomizer.getStream(algorithm, seed, 0, populations++);
         field.clear();
         for(int row = 0; row < field.getDepth(); row++) {
             for(int col = 0; col < field.getWidth(); col++) {
-                if(rand.nextDouble() <= HUMAN_CREATION_PROBABILITY) {
-                    Location location = new Location(row, col);
-                    Human human = new Human(true,true, field, location);
+                if(rand.nextDouble() <= config.getCreationProbability()) {
+                    Human human = Human.create(true,true, field, row, col, rand);
                     human.setHumanColor();
-                    view.setColor(human);
                     allHumans.add(human);
                 }
                 // else leave the location empty.
@@ -110,19 +394,4 @@ public class Simulator implements ActionListener
             // wake up
         }
     }
-
-    /** Recognise the source of the Action Listener and run the appropriate code for each button
-     * @param e the action event that indicates which button has been pressed */
-    @Override
-    public void actionPerformed(ActionEvent e) {
-        if(e.getSource() == view.button1){
-            simulateOneStep();
-        }
-        else if(e.getSource() == view.button2){
-            runLongSimulation();
-        }
-        else if(e.getSource() == view.button3){
-            reset();
-        }
-    }
 }
\ No newline at end of file
@@ -0,0 +1,10 @@
+/** An observer of a simulation. Observers are told about the state of the field
+ * after the simulator has been reset and after every step, so the simulator itself
+ * never has to know whether anybody is displaying or recording it */
+public interface SimulatorObserver
+{
+    /** The field has reached the state of the given step.
+     * @param step Which iteration step it is.
+     * @param field The field whose state has been reached */
+    void stepCompleted(int step, Field field);
+}
@@ -1,21 +1,31 @@
 import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
 import javax.swing.*;
 import javax.swing.border.LineBorder;
+import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import jdk.jfr.EventType;
 
 /** A graphical view of the simulation grid.
  * The view displays a colored rectangle for each location
  * representing its contents. It uses a default background color.
  * Colors for each type of species can be defined using the
- * setColor method */
-public class SimulatorView extends JFrame
+ * setColor method. The view drives a Simulator from its buttons, through a
+ * SimulationRunner, so the simulation runs on a thread of its own and the view
+ * paints the snapshots it publishes. It can also play back a trace instead, through
+ * a TracePlayer, whose steps are read on the event thread */
+public class SimulatorView extends JFrame implements ActionListener
 {
     // Colors used for empty locations.
     private static final Color EMPTY_COLOR = Color.white;
-
-    // Color used for objects that have no defined color.
-    private static final Color UNKNOWN_COLOR = Color.gray;
+    // The type of the render events, which says whether a recording wants them.
+    private static final EventType RENDER_EVENT = EventType.getEventType(RenderEvent.class);
 
     private final String STEP = "Step: ";
     private final String POPULATION = "Population: ";
@@ -23,19 +33,46 @@ public class SimulatorView extends JFrame
     private final String DEAD = "dead: ";
     private final String VACCINATED = "vaccinated: ";
     private final JLabel stepLabel, population, infected, dead, vaccinated;
-    public JButton button1, button2, button3;
+    public JButton button1, button2, button3, button4;
     private final FieldView fieldView;
+    // Runs the simulation shown by this view, or null if it plays a trace.
+    private final SimulationRunner runner;
+    // Plays the trace shown by this view, or null if it runs a simulation.
+    private final TracePlayer player;
+    // Plays the next step of the trace at the frame rate while running, or null.
+    private final Timer playTimer;
+    // The latest snapshot published by the runner and not yet shown, or null.
+    private final AtomicReference<FieldSnapshot> pending;
 
     // A map for storing colors for participants in the simulation
     private Map<Human, Color> colors;
-    // A statistics object computing and storing simulation information
-    private FieldStats stats;
-
-    /** Create a view of the given width and height.
-     * @param height The simulation's height.
-     * @param width  The simulation's width */
-    public SimulatorView(int height, int width) {
-        stats = new FieldStats();
+
+    /** Create a view of the given simulation, sized to its field. From now on
+     * the simulation is run by the view and must not be used directly.
+     * @param simulator The simulation to show and control */
+    public SimulatorView(Simulator simulator) {
+        this(simulator.getField().getDepth(), simulator.getField().getWidth(), simulator, null);
+    }
+
+    /** Create a view playing back a trace, sized to its field. The step button plays the
+     * next step, the other buttons play 200 steps on, go back to the start and play the
+     * steps one after the other at the frame rate of a SimulationRunner. The player is used
+     * by the view from now on, on the event thread, and must not be used directly. This
+     * must be called on the event thread.
+     * @param player The player of the trace to show */
+    public SimulatorView(TracePlayer player) {
+        this(player.getDepth(), player.getWidth(), null, player);
+        button3.setText("rewind");
+        play(() -> player.next());
+    }
+
+    /** Create a view of a simulation or a trace.
+     * @param height The depth of the field shown.
+     * @param width The width of the field shown.
+     * @param simulator The simulation to run, or null to play a trace.
+     * @param player The player of the trace to play, or null to run a simulation */
+    private SimulatorView(int height, int width, Simulator simulator, TracePlayer player) {
+        pending = new AtomicReference<>();
         colors = new LinkedHashMap<>();
 
         setTitle("Virus Simulation");
@@ -53,6 +90,11 @@ public class SimulatorView extends JFrame
         button1.add(stepLabel);
         button2 = new JButton("200 steps");
         button3 = new JButton("reset");
+        button4 = new JButton("run");
+        button1.addActionListener(this);
+        button2.addActionListener(this);
+        button3.addActionListener(this);
+        button4.addActionListener(this);
 
         // the panel with the step buttons
         JPanel bottomPanel = new JPanel();
@@ -62,6 +104,7 @@ public class SimulatorView extends JFrame
         bottomPanel.add(button1);
         bottomPanel.add(button2);
         bottomPanel.add(button3);
+        bottomPanel.add(button4);
 
         // the status of the people in the field
         // it is contained in the side panel
@@ -110,6 +153,112 @@ public class SimulatorView extends JFrame
         pack();
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         setVisible(true);
+
+        this.player = player;
+        if(player != null) {
+            runner = null;
+            playTimer = new Timer(1000 / SimulationRunner.DEFAULT_FRAME_RATE, e -> playNext());
+        }
+        else {
+            runner = new SimulationRunner(simulator, this::publish, SimulationRunner.DEFAULT_FRAME_RATE);
+            playTimer = null;
+        }
+    }
+
+    /** Receive a snapshot from the runner and have it shown on the event thread.
+     * If the event thread has not shown the previous one yet, it is replaced by the two
+     * combined, as the new one may only hold the locations changed since the previous one.
+     * @param snapshot The latest state of the field */
+    private void publish(FieldSnapshot snapshot) {
+        FieldSnapshot earlier = pending.getAndAccumulate(snapshot,
+                (previous, latest) -> previous == null ? latest : latest.combine(previous));
+        if(earlier == null) {
+            SwingUtilities.invokeLater(() -> showStatus(pending.getAndSet(null)));
+        }
+    }
+
+    /** Recognise the source of the Action Listener and run the appropriate code for each button
+     * @param e the action event that indicates which button has been pressed */
+    @Override
+    public void actionPerformed(ActionEvent e) {
+        if(player != null) {
+            playerAction(e.getSource());
+        }
+        else if(e.getSource() == button1){
+            runner.step();
+        }
+        else if(e.getSource() == button2){
+            runner.run(Simulator.LONG_SIMULATION_STEPS);
+        }
+        else if(e.getSource() == button3){
+            runner.reset();
+        }
+        else if(e.getSource() == button4){
+            if(runner.isRunning()) {
+                runner.pause();
+            }
+            else {
+                runner.run(0);
+            }
+        }
+    }
+
+    /** Carry out the action of a button on the trace played.
+     * @param source The button pressed */
+    private void playerAction(Object source) {
+        if(source == button4) {
+            if(playTimer.isRunning()) {
+                playTimer.stop();
+            }
+            else {
+                playTimer.start();
+            }
+            return;
+        }
+        playTimer.stop();
+        if(source == button1) {
+            play(() -> player.next());
+        }
+        else if(source == button2) {
+            play(() -> player.seek(player.getStep() + Simulator.LONG_SIMULATION_STEPS));
+        }
+        else if(source == button3) {
+            play(() -> player.seek(0));
+        }
+    }
+
+    /** Play the next step of the trace while running, stopping at its end */
+    private void playNext() {
+        if(!play(() -> player.next())) {
+            playTimer.stop();
+        }
+    }
+
+    /** Move the player on and show where it got to.
+     * @param move Moves the player, and tells whether the trace had the step asked for.
+     * @return false if the trace had no such step or could not be read */
+    private boolean play(PlayerMove move) {
+        boolean played;
+        try {
+            played = move.play();
+        }
+        catch(IOException e) {
+            playTimer.stop();
+            JOptionPane.showMessageDialog(this, "Cannot play the trace: " + e.getMessage());
+            return false;
+        }
+        if(player.getStep() >= 0) {
+            showStatus(player.snapshot());
+        }
+        return played;
+    }
+
+    /** A way of moving a TracePlayer on */
+    private interface PlayerMove
+    {
+        /** Move the player on.
+         * @return false if the trace does not have the step asked for */
+        boolean play() throws IOException;
     }
 
     /** Define a color to be used for a given class.
@@ -118,74 +267,74 @@ public class SimulatorView extends JFrame
         colors.put(human,human.getHumanColor());
     }
 
-    /** @return The color to be used for a given class */
-   private Color getColor(Human human) {
-        Color col = human.getHumanColor();
-        if(col == null) {
-            // no color defined for this class
-            return UNKNOWN_COLOR;
-        }
-        else {
-            return col;
+    /** Show the status of the field in a snapshot. This must be called on the event thread.
+     * Only the locations held by the snapshot are drawn again.
+     * @param snapshot The state of the field to show */
+    public void showStatus(FieldSnapshot snapshot) {
+        // The event is only created while a recording wants it, so a frame allocates
+        // nothing for it otherwise.
+        RenderEvent event = RENDER_EVENT.isEnabled() ? new RenderEvent() : null;
+        if(event != null) {
+            event.begin();
         }
-    }
-
-    /** Show the current status of the field.
-     * @param step Which iteration step it is.
-     * @param field The field whose status is to be displayed */
-    public void showStatus(int step, Field field) {
         if(!isVisible()) {
             setVisible(true);
         }
 
-        stepLabel.setText(STEP + step);
-        stats.reset();
+        stepLabel.setText(STEP + snapshot.getStep());
 
-        fieldView.preparePaint();
-
-        for(int row = 0; row < field.getDepth(); row++) {
-            for(int col = 0; col < field.getWidth(); col++) {
-                Human animal = field.getObjectAt(row, col);
-                if(animal != null) {
-                    stats.incrementCount(animal.getClass());
-                    fieldView.drawMark(col, row, getColor(animal));
-                }
-                else {
-                    fieldView.drawMark(col, row, EMPTY_COLOR);
-                }
-            }
+        int emptyRGB = EMPTY_COLOR.getRGB();
+        int width = snapshot.getWidth();
+        int count = snapshot.getPositionCount();
+        for(int i = 0; i < count; i++) {
+            int position = snapshot.getPosition(i);
+            int rgb = snapshot.getPositionColor(i);
+            fieldView.drawMark(position % width, position / width, rgb != 0 ? rgb : emptyRGB);
+        }
+        population.setText(POPULATION + snapshot.getPopulation() + " ");
+        infected.setText(INFECTED + snapshot.getInfected());
+        vaccinated.setText(VACCINATED + snapshot.getVaccinated());
+        dead.setText(DEAD + snapshot.getDead());
+        fieldView.paintChanges();
+        if(event != null) {
+            event.end();
+        }
+        if(event != null && event.shouldCommit()) {
+            event.step = snapshot.getStep();
+            event.positions = count;
+            event.commit();
         }
-        stats.countFinished();
-        population.setText(POPULATION + stats.getPopulationDetails(field));
-        infected.setText(INFECTED + stats.infectedCount(field));
-        vaccinated.setText(VACCINATED + stats.vaccinatedCount(field));
-        dead.setText(DEAD + stats.deadCount(field));
-        fieldView.repaint();
     }
 
     /** Determine whether the simulation should continue to run.
-     * @return true If there is more than one species alive */
+     * @return true If there are humans alive and the epidemic has not died out */
     public boolean isViable(Field field) {
-        return stats.isViable(field);
+        return field.getStats().isViable();
     }
 
     /** Provide a graphical view of a rectangular field. This is a nested class (a class defined inside a class)
-     * which defines a custom component for the user interface. This component displays the field */
+     * which defines a custom component for the user interface. This component displays the field.
+     * The field is drawn into an image with one pixel per location, by writing the packed RGB values
+     * straight into its raster, and the image is scaled to the size of the component when painted */
     private class FieldView extends JPanel
     {
         private final int GRID_VIEW_SCALING_FACTOR = 6;
 
         private final int gridWidth, gridHeight;
-        private int xScale, yScale;
-        Dimension size;
-        private Graphics g;
-        private Image fieldImage;
+        // The image of the field, one pixel per location.
+        private final BufferedImage fieldImage;
+        // The raster of the image: the RGB of location (x, y) is at y * gridWidth + x.
+        private final int[] pixels;
+        // Whether any pixel has changed since the image was last painted.
+        private boolean changed;
 
         /** Create a new FieldView component */
         public FieldView(int height, int width) {
             gridHeight = height;
-            gridWidth = width - 16;
-            size = new Dimension(0, 0);
+            gridWidth = width;
+            fieldImage = new BufferedImage(gridWidth, gridHeight, BufferedImage.TYPE_INT_RGB);
+            pixels = ((DataBufferInt) fieldImage.getRaster().getDataBuffer()).getData();
+            Arrays.fill(pixels, EMPTY_COLOR.getRGB());
             setResizable(true);
             setBorder(new LineBorder(Color.BLACK,1));
         }
@@ -196,44 +345,31 @@ public class SimulatorView extends JFrame
                     gridHeight * GRID_VIEW_SCALING_FACTOR);
         }
 
-        /** Prepare for a new round of painting. Since the component
-         * may be resized, compute the scaling factor again */
-        public void preparePaint() {
-            if(! size.equals(getSize())) {  // if the size has changed...
-                size = getSize();
-                fieldImage = fieldView.createImage(size.width, size.height);
-                g = fieldImage.getGraphics();
-
-                xScale = size.width / gridWidth;
-                if(xScale < 1) {
-                    xScale = GRID_VIEW_SCALING_FACTOR;
-                }
-                yScale = size.height / gridHeight;
-                if(yScale < 1) {
-                    yScale = GRID_VIEW_SCALING_FACTOR;
-                }
+        /** Paint on grid location on this field in a given color.
+         * The pixel is only written if its color changes.
+         * @param rgb The color, as packed RGB */
+        public void drawMark(int x, int y, int rgb) {
+            int index = y * gridWidth + x;
+            if(pixels[index] != rgb) {
+                pixels[index] = rgb;
+                changed = true;
             }
         }
 
-        /** Paint on grid location on this field in a given color */
-        public void drawMark(int x, int y, Color color) {
-            g.setColor(color);
-            g.fillRect(x * xScale, y * yScale, xScale-1, yScale-1);
+        /** Redisplay the field if any location has changed since it was last painted */
+        public void paintChanges() {
+            if(changed) {
+                changed = false;
+                repaint();
+            }
         }
 
         /** The field view component needs to be redisplayed.
-         * Copy the internal image to screen */
+         * Scale the image of the field to the size of the component */
         public void paintComponent(Graphics g) {
-            if(fieldImage != null) {
-                Dimension currentSize = getSize();
-                if(size.equals(currentSize)) {
-                    g.drawImage(fieldImage, 0, 0, null);
-                }
-                else {
-                    // Rescale the previous image.
-                    g.drawImage(fieldImage, 0, 0, currentSize.width, currentSize.height, null);
-                }
-            }
+            super.paintComponent(g);
+            Dimension currentSize = getSize();
+            g.drawImage(fieldImage, 0, 0, currentSize.width, currentSize.height, null);
         }
     }
 }
@@ -0,0 +1,160 @@
+/** Decide when a simulation has settled, so that a long run can stop early (see
+ * Simulator.setStopCondition). As an observer of the simulation it keeps the fingerprint
+ * of the field (see Field.getFingerprint) and its statistics over a window of the last
+ * steps. The simulation has settled when:
+ * <ul>
+ * <li>the epidemic has died out, or nobody is left (EXTINCTION), after which nothing can
+ *     infect anybody again;</li>
+ * <li>the field is back in the state it was in at one of the steps of the window (CYCLE),
+ *     e.g. when nobody can move any more;</li>
+ * <li>the population, the infected and the vaccinated have each stayed within a band of
+ *     the given tolerance for the whole window (STEADY).</li>
+ * </ul>
+ * Once settled it stays so, until the simulation jumps to another step, e.g. when it is
+ * reset or restored from a checkpoint */
+public class SteadyStateDetector implements SimulatorObserver
+{
+    // The ways a simulation can settle.
+    public enum Reason { EXTINCTION, CYCLE, STEADY }
+
+    // The number of steps of the window, unless another number is given.
+    public static final int DEFAULT_WINDOW = 50;
+    // The width of the band of a steady statistic, relative to its mean, unless another is given.
+    public static final double DEFAULT_TOLERANCE = 0.01;
+
+    // The statistics kept for each step of the window.
+    private static final int POPULATION = 0, INFECTED = 1, VACCINATED = 2, VALUES = 3;
+
+    // The number of steps of the window.
+    private final int window;
+    // The width of the band of a steady statistic, relative to its mean.
+    private final double tolerance;
+    // The fingerprints and statistics of the steps of the window, by step modulo window.
+    private final long[] fingerprints;
+    private final int[][] values;
+    // The number of steps in the window so far.
+    private int count;
+    // The step seen last, or -1 before the first.
+    private int lastStep = -1;
+    // How the simulation settled, or null if it has not.
+    private Reason reason;
+    // The step the simulation settled at, and the period of its cycle if it is one.
+    private int settledStep, period;
+
+    /** Create a detector with the default window and tolerance */
+    public SteadyStateDetector() {
+        this(DEFAULT_WINDOW, DEFAULT_TOLERANCE);
+    }
+
+    /** Create a detector. It must then be told about the steps of a simulation, e.g. by
+     * Simulator.setStopCondition.
+     * @param window The number of steps the statistics must stay steady for, and the longest
+     *               cycle recognised.
+     * @param tolerance The width of the band the statistics must stay in, relative to their
+     *                  mean over the window, e.g. 0.01 for 1% */
+    public SteadyStateDetector(int window, double tolerance) {
+        if(window < 2) {
+            throw new IllegalArgumentException("The window must be at least two steps: " + window);
+        }
+        if(!(tolerance >= 0)) {
+            throw new IllegalArgumentException("The tolerance must not be negative: " + tolerance);
+        }
+        this.window = window;
+        this.tolerance = tolerance;
+        fingerprints = new long[window];
+        values = new int[window][VALUES];
+    }
+
+    @Override
+    public void stepCompleted(int step, Field field) {
+        if(step != lastStep + 1) {
+            count = 0;
+            reason = null;
+        }
+        lastStep = step;
+        if(reason != null) {
+            return;
+        }
+        FieldStats stats = field.getStats();
+        long fingerprint = field.getFingerprint();
+        if(!stats.isViable()) {
+            settle(Reason.EXTINCTION, step, 0);
+        }
+        else {
+            for(int k = 1; k <= count && reason == null; k++) {
+                if(fingerprints[Math.floorMod(step - k, window)] == fingerprint) {
+                    settle(Reason.CYCLE, step, k);
+                }
+            }
+        }
+        int slot = Math.floorMod(step, window);
+        fingerprints[slot] = fingerprint;
+        values[slot][POPULATION] = stats.getPopulation();
+        values[slot][INFECTED] = stats.infectedCount();
+        values[slot][VACCINATED] = stats.vaccinatedCount();
+        count = Math.min(count + 1, window);
+        if(reason == null && count == window && isSteady()) {
+            settle(Reason.STEADY, step, 0);
+        }
+    }
+
+    /** @return How the simulation settled, or null if it has not */
+    public Reason getReason() {
+        return reason;
+    }
+
+    /** @return true if the simulation has settled */
+    public boolean isSettled() {
+        return reason != null;
+    }
+
+    /** @return The step the simulation settled at, if it has */
+    public int getSettledStep() {
+        return settledStep;
+    }
+
+    /** @return The number of steps of the cycle the simulation settled in, if it did */
+    public int getPeriod() {
+        return period;
+    }
+
+    /** @return A description of how the simulation settled, or null if it has not */
+    public String describe() {
+        if(reason == null) {
+            return null;
+        }
+        switch(reason) {
+            case EXTINCTION:
+                return "the epidemic died out at step " + settledStep;
+            case CYCLE:
+                return "the field was back in its state of step " + (settledStep - period) + " at step " + settledStep;
+            default:
+                return "the statistics stayed within " + tolerance * 100 + "% for " + window
+                        + " steps at step " + settledStep;
+        }
+    }
+
+    /** Record that the simulation has settled */
+    private void settle(Reason how, int step, int cycle) {
+        reason = how;
+        settledStep = step;
+        period = cycle;
+    }
+
+    /** @return true if every statistic stayed within the band over the window */
+    private boolean isSteady() {
+        for(int value = 0; value < VALUES; value++) {
+            long sum = 0;
+            int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+            for(int[] step : values) {
+                sum += step[value];
+                min = Math.min(min, step[value]);
+                max = Math.max(max, step[value]);
+            }
+            if(max - min > tolerance * sum / window) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,71 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/** A JDK Flight Recorder event for one step of a simulation (see Simulator.simulateOneStep).
+ * Its duration is the whole step; it also holds the time of each phase of the step and what
+ * the humans did during it. The births and infections happen as each human moves, so they
+ * are counted rather than timed apart from the moves. The event is not even created unless
+ * a recording is running, e.g. one started with java -XX:StartFlightRecording:filename=run.jfr ... */
+@Name("simulation.Step")
+@Label("Simulation Step")
+@Category("Simulation")
+@Description("One step of the simulation, with the time of its phases and what the humans did")
+public class StepEvent extends Event
+{
+    @Label("Step")
+    int step;
+
+    @Label("Threads")
+    @Description("The number of threads the humans were updated on")
+    int threads;
+
+    @Label("Population")
+    @Description("The number of humans at the end of the step")
+    int population;
+
+    @Label("Moves")
+    @Description("The number of humans updated")
+    int moves;
+
+    @Label("Births")
+    int births;
+
+    @Label("Deaths")
+    int deaths;
+
+    @Label("New Infections")
+    int infections;
+
+    @Label("Crowded Lookups")
+    @Description("The number of searches for a free neighbouring position that found none")
+    int crowded;
+
+    @Label("Schedule Time")
+    @Description("The time spent on the humans that grew too old, recovered or died of an infection")
+    @Timespan(Timespan.NANOSECONDS)
+    long scheduleTime;
+
+    @Label("Health Time")
+    @Description("The time spent putting humans into quarantine and vaccinating them")
+    @Timespan(Timespan.NANOSECONDS)
+    long healthTime;
+
+    @Label("Move Time")
+    @Description("The time spent moving the humans, with their births and infections")
+    @Timespan(Timespan.NANOSECONDS)
+    long moveTime;
+
+    @Label("Cleanup Time")
+    @Description("The time spent releasing empty storage of the field")
+    @Timespan(Timespan.NANOSECONDS)
+    long cleanupTime;
+
+    @Label("Observer Time")
+    @Description("The time spent telling the observers, e.g. taking a snapshot for the display")
+    @Timespan(Timespan.NANOSECONDS)
+    long observerTime;
+}
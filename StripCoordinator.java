@@ -0,0 +1,188 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Run a simulation whose field is split into strips of rows, each kept by a StripWorker
+ * in a process of its own, so that the field can be larger than one process can hold.
+ * The coordinator listens on the loopback address for the workers, tells each its strip
+ * and its neighbour, and gathers the statistics of the strips after every step into those
+ * of the whole field.
+ *
+ * By default it starts the workers itself, as Java processes with the same class path on
+ * this machine. If the system property simulation.spawnWorkers is false it waits for the
+ * workers to be started by hand instead, on the port given by simulation.stripPort. The
+ * statistics of every step are written as CSV to the file named by simulation.metrics, in
+ * the columns of MetricsSink */
+public class StripCoordinator
+{
+    // How the coordinator is used.
+    private static final String USAGE = "usage: java StripCoordinator <width> <depth> <steps> <seed> <output file> <workers>";
+    // The columns of the statistics of every step.
+    private static final String COLUMNS = "step,population,infected,vaccinated,quarantined,births,deaths";
+
+    /** Run a simulation on several worker processes.
+     * @param args See USAGE */
+    public static void main(String[] args) {
+        if(args.length != 6) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+        try {
+            int width = Integer.parseInt(args[0]);
+            int depth = Integer.parseInt(args[1]);
+            int steps = Integer.parseInt(args[2]);
+            long seed = Long.parseLong(args[3]);
+            int workers = Integer.parseInt(args[5]);
+            if(width <= 0 || depth <= 0 || steps < 0 || workers < 1 || depth / workers < StripWorker.HALO) {
+                System.err.println(USAGE);
+                System.exit(2);
+            }
+            run(width, depth, steps, seed, args[4], workers);
+        }
+        catch(NumberFormatException e) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+        catch(IOException e) {
+            System.err.println("The simulation failed: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** Run a simulation on several worker processes, and write its final statistics.
+     * @param width The width of the field.
+     * @param depth The depth of the field.
+     * @param steps The number of steps to run for.
+     * @param seed The seed of the random generators, so the run can be repeated with the
+     *             same number of workers.
+     * @param output The file the final statistics are written to.
+     * @param workers The number of worker processes */
+    public static void run(int width, int depth, int steps, long seed, String output, int workers)
+            throws IOException {
+        List<Process> processes = new ArrayList<>();
+        List<Socket> sockets = new ArrayList<>();
+        String metricsFile = System.getProperty("simulation.metrics");
+        try(ServerSocket server = new ServerSocket(Integer.getInteger("simulation.stripPort", 0), workers,
+                InetAddress.getLoopbackAddress())) {
+            if(Boolean.parseBoolean(System.getProperty("simulation.spawnWorkers", "true"))) {
+                for(int i = 0; i < workers; i++) {
+                    processes.add(spawn(server.getLocalPort()));
+                }
+            }
+            else {
+                System.out.println("Waiting for " + workers + " workers: java StripWorker "
+                        + server.getInetAddress().getHostAddress() + " " + server.getLocalPort());
+            }
+            // The workers get their strips in the order they connect.
+            List<DataInputStream> ins = new ArrayList<>();
+            List<DataOutputStream> outs = new ArrayList<>();
+            int[] ports = new int[workers];
+            for(int i = 0; i < workers; i++) {
+                Socket socket = server.accept();
+                sockets.add(socket);
+                ins.add(new DataInputStream(new BufferedInputStream(socket.getInputStream())));
+                outs.add(new DataOutputStream(new BufferedOutputStream(socket.getOutputStream())));
+                ports[i] = ins.get(i).readInt();
+            }
+            for(int i = 0; i < workers; i++) {
+                DataOutputStream out = outs.get(i);
+                out.writeInt(i);
+                out.writeInt(workers);
+                out.writeInt(depth);
+                out.writeInt(width);
+                out.writeInt(steps);
+                out.writeLong(seed);
+                out.writeInt(i + 1 < workers ? ports[i + 1] : -1);
+                out.flush();
+            }
+
+            PrintWriter metrics = metricsFile != null ? new PrintWriter(new FileWriter(metricsFile)) : null;
+            long start = System.nanoTime();
+            int[] totals = new int[StripWorker.STATS_INTS];
+            try {
+                if(metrics != null) {
+                    metrics.println(COLUMNS);
+                }
+                for(int step = 0; step <= steps; step++) {
+                    gather(ins, step, totals);
+                    if(metrics != null) {
+                        StringBuilder line = new StringBuilder();
+                        for(int value : totals) {
+                            line.append(line.length() > 0 ? "," : "").append(value);
+                        }
+                        metrics.println(line);
+                    }
+                }
+            }
+            finally {
+                if(metrics != null) {
+                    metrics.close();
+                }
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            try(PrintWriter out = new PrintWriter(new FileWriter(output))) {
+                out.println("width,depth,steps,seed,population,infected,vaccinated,dead,seconds");
+                out.println(width + "," + depth + "," + steps + "," + seed + "," + totals[1] + "," + totals[2] + ","
+                        + totals[3] + "," + totals[6] + "," + seconds);
+            }
+            System.out.printf("%d steps on %d workers in %.3f s: %.1f steps/sec%n",
+                    steps, workers, seconds, steps / seconds);
+            for(Process process : processes) {
+                process.waitFor();
+            }
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the workers", e);
+        }
+        finally {
+            for(Socket socket : sockets) {
+                socket.close();
+            }
+            for(Process process : processes) {
+                process.destroy();
+            }
+        }
+    }
+
+    /** Read the statistics of a step from every worker and add them up.
+     * @param ins The connections to the workers.
+     * @param step The step expected.
+     * @param totals Set to the step and the sums of the statistics of the workers */
+    private static void gather(List<DataInputStream> ins, int step, int[] totals) throws IOException {
+        Arrays.fill(totals, 0);
+        totals[0] = step;
+        for(DataInputStream in : ins) {
+            int workerStep = in.readInt();
+            if(workerStep != step) {
+                throw new IOException("A worker reported step " + workerStep + " instead of " + step);
+            }
+            for(int i = 1; i < totals.length; i++) {
+                totals[i] += in.readInt();
+            }
+        }
+    }
+
+    /** Start a worker process on this machine, with the class path and JVM of this one.
+     * @param port The port the coordinator listens on.
+     * @return The process */
+    private static Process spawn(int port) throws IOException {
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                "StripWorker", InetAddress.getLoopbackAddress().getHostAddress(), String.valueOf(port));
+        builder.inheritIO();
+        return builder.start();
+    }
+}
@@ -0,0 +1,319 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** One of the processes of a simulation whose field is split into strips of rows (see
+ * StripCoordinator). The worker keeps the rows of its own strip, along with HALO rows on
+ * either side of it, which hold copies of the humans at the edges of the strips next to
+ * it: its neighbours. Before every step each worker sends the humans of its edge rows to
+ * its neighbours, which place them in their halo rows as ghosts, so humans near an edge
+ * see who is across it when they move, give birth and get infected. Ghosts do not act and
+ * are removed after the step.
+ *
+ * A human moves at most one row in a step, so the humans that moved or were born into the
+ * halo rows during the step are sent on to the neighbour whose strip they are now in. A
+ * human arriving at a position that a human of the neighbour took during the same step
+ * goes to a free position next to it in the strip, and dies of overcrowding if there is
+ * none, as a human that finds no free position does. The result therefore depends on the
+ * number of workers as well as on the seed.
+ *
+ * Workers talk to the coordinator and to their neighbours over sockets: each worker
+ * connects to the coordinator, which gives it its strip and the port of the worker below
+ * it, and connects to that worker. After every step it sends the coordinator the
+ * statistics of its strip.
+ *
+ * It is started as java StripWorker host port, by the coordinator or by hand */
+public class StripWorker
+{
+    // How StripWorker is used from the command line.
+    private static final String USAGE = "usage: java StripWorker <coordinator host> <coordinator port>";
+    // The number of rows of the halo on either side of a strip: a human moves to a
+    // neighbouring row, and is infected from the rows next to that.
+    static final int HALO = 2;
+    // The number of ints sent for each human: its row, column, age, recovery step, death
+    // step and flags.
+    private static final int RECORD_INTS = 6;
+    // The number of ints of the statistics sent to the coordinator after every step (see
+    // StripCoordinator.COLUMNS).
+    static final int STATS_INTS = 7;
+
+    // The simulation of the strip and its halos.
+    private final Simulator sim;
+    // The field of the strip and its halos.
+    private final Field field;
+    // The first global row of the strip, and the one after its last.
+    private final int top, bottom;
+    // The global row of the first row of the field.
+    private final int fieldTop;
+    // The connections to the neighbours above and below, or null at the edges of the field.
+    private final DataInputStream upIn, downIn;
+    private final DataOutputStream upOut, downOut;
+    // The ghosts in the halo rows during a step.
+    private final List<Human> ghosts;
+
+    /** Create the worker of a strip, with a new population in it.
+     * @param strip The number of the strip, from the top.
+     * @param strips The number of strips.
+     * @param depth The depth of the whole field.
+     * @param width The width of the whole field.
+     * @param seed The seed of the whole simulation.
+     * @param up The connection to the worker of the strip above, or null for the first.
+     * @param down The connection to the worker of the strip below, or null for the last.
+     * @throws IOException If the connections cannot be used */
+    public StripWorker(int strip, int strips, int depth, int width, long seed, Socket up, Socket down)
+            throws IOException {
+        top = (int) ((long) depth * strip / strips);
+        bottom = (int) ((long) depth * (strip + 1) / strips);
+        if(bottom - top < HALO) {
+            throw new IllegalArgumentException("A strip must have at least " + HALO + " rows: " + depth + " rows in "
+                    + strips + " strips");
+        }
+        fieldTop = Math.max(0, top - HALO);
+        field = new Field(Math.min(depth, bottom + HALO) - fieldTop, width);
+        // Every strip draws from streams of its own.
+        sim = new Simulator(field, SimulationConfig.DEFAULT, seed ^ (strip + 1) * 0x9E3779B97F4A7C15L);
+        upIn = up != null ? new DataInputStream(new BufferedInputStream(up.getInputStream(), 1 << 16)) : null;
+        upOut = up != null ? new DataOutputStream(new BufferedOutputStream(up.getOutputStream(), 1 << 16)) : null;
+        downIn = down != null ? new DataInputStream(new BufferedInputStream(down.getInputStream(), 1 << 16)) : null;
+        downOut = down != null ? new DataOutputStream(new BufferedOutputStream(down.getOutputStream(), 1 << 16)) : null;
+        ghosts = new ArrayList<>();
+        // The population of the halos belongs to the neighbours.
+        for(Human human : haloHumans()) {
+            human.leave();
+        }
+    }
+
+    /** Run a step: exchange the edge rows with the neighbours, step the strip, and hand the
+     * humans that crossed an edge over to the neighbours.
+     * @throws IOException If a neighbour cannot be reached */
+    public void step() throws IOException {
+        exchange(edgeRecords(bottom - HALO), edgeRecords(top), true);
+        sim.simulateOneStep();
+        for(Human ghost : ghosts) {
+            ghost.leave();
+        }
+        // The ghosts are kept by the store, to be the ghosts and newborns of later steps.
+        field.getHumanStore().removeDead(ghosts);
+        Records down = new Records(), up = new Records();
+        for(Human human : haloHumans()) {
+            (human.getRow() + fieldTop >= bottom ? down : up).add(field, fieldTop, human);
+            human.leave();
+        }
+        exchange(down, up, false);
+    }
+
+    /** Write the statistics of the strip.
+     * @param out Where to write them */
+    public void writeStats(DataOutputStream out) throws IOException {
+        FieldStats stats = field.getStats();
+        out.writeInt(sim.getStep());
+        out.writeInt(stats.getPopulation());
+        out.writeInt(stats.infectedCount());
+        out.writeInt(stats.vaccinatedCount());
+        out.writeInt(stats.quarantinedCount());
+        out.writeInt(stats.birthCount());
+        out.writeInt(stats.deadCount());
+        out.flush();
+    }
+
+    /** Connect to the coordinator, then to the neighbours, and run the steps the coordinator
+     * asks for.
+     * @param args See USAGE */
+    public static void main(String[] args) {
+        if(args.length != 2) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        try(ServerSocket listener = new ServerSocket(0, 1, loopback);
+            Socket coordinator = new Socket(args[0], Integer.parseInt(args[1]))) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(coordinator.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(coordinator.getOutputStream()));
+            out.writeInt(listener.getLocalPort());
+            out.flush();
+            int strip = in.readInt();
+            int strips = in.readInt();
+            int depth = in.readInt();
+            int width = in.readInt();
+            int steps = in.readInt();
+            long seed = in.readLong();
+            int downPort = in.readInt();
+            // The worker above connects to this one, and this one to the worker below.
+            Socket down = downPort >= 0 ? new Socket(loopback, downPort) : null;
+            Socket up = strip > 0 ? listener.accept() : null;
+            try {
+                StripWorker worker = new StripWorker(strip, strips, depth, width, seed, up, down);
+                worker.writeStats(out);
+                for(int step = 0; step < steps; step++) {
+                    worker.step();
+                    worker.writeStats(out);
+                }
+            }
+            finally {
+                if(up != null) {
+                    up.close();
+                }
+                if(down != null) {
+                    down.close();
+                }
+            }
+        }
+        catch(NumberFormatException e) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+        catch(IOException | IllegalArgumentException e) {
+            System.err.println("Strip worker failed: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** Send records to both neighbours and receive theirs. The records go down first and
+     * then up, so no two workers ever wait for each other to read.
+     * @param toDown The records for the neighbour below.
+     * @param toUp The records for the neighbour above.
+     * @param asGhosts Whether the records received are ghosts for the halos, or humans
+     *                 moving into the strip */
+    private void exchange(Records toDown, Records toUp, boolean asGhosts) throws IOException {
+        if(downOut != null) {
+            toDown.write(downOut);
+        }
+        if(upIn != null) {
+            place(Records.read(upIn), asGhosts);
+        }
+        if(upOut != null) {
+            toUp.write(upOut);
+        }
+        if(downIn != null) {
+            place(Records.read(downIn), asGhosts);
+        }
+    }
+
+    /** Put the humans of records received from a neighbour into the field.
+     * @param received The records, with global rows.
+     * @param asGhosts Whether they are ghosts, or humans joining the strip */
+    private void place(Records received, boolean asGhosts) {
+        int[] records = received.values;
+        for(int i = 0; i < received.size; i += RECORD_INTS) {
+            int row = records[i] - fieldTop;
+            int col = records[i + 1];
+            if(asGhosts) {
+                ghosts.add(Human.ghost(field, row, col, records[i + 3], records[i + 5]));
+                continue;
+            }
+            if(field.getObjectAt(row, col) != null) {
+                int direction = freeDirectionInStrip(row, col);
+                if(direction < 0) {
+                    field.getStats().humanLost();
+                    continue;
+                }
+                row = Field.adjacentRow(row, direction);
+                col = Field.adjacentCol(col, direction);
+            }
+            sim.allHumans.add(new Human(field, row, col, records[i + 2], records[i + 3], records[i + 4], records[i + 5]));
+        }
+    }
+
+    /** Find the first free position next to a position, within the strip.
+     * @return Its direction (see Field.adjacentRow), or -1 if there is none */
+    private int freeDirectionInStrip(int row, int col) {
+        for(int d = 0; d < 8; d++) {
+            int nextRow = Field.adjacentRow(row, d);
+            int nextCol = Field.adjacentCol(col, d);
+            if(nextRow + fieldTop >= top && nextRow + fieldTop < bottom && nextCol >= 0 && nextCol < field.getWidth()
+                    && field.getObjectAt(nextRow, nextCol) == null) {
+                return d;
+            }
+        }
+        return -1;
+    }
+
+    /** @return The records of the humans in the HALO rows of the strip from a global row */
+    private Records edgeRecords(int from) {
+        Records records = new Records();
+        for(int row = from; row < from + HALO; row++) {
+            for(int col = 0; col < field.getWidth(); col++) {
+                Human human = field.getObjectAt(row - fieldTop, col);
+                if(human != null) {
+                    records.add(field, fieldTop, human);
+                }
+            }
+        }
+        return records;
+    }
+
+    /** @return The humans in the halo rows, outside the strip */
+    private List<Human> haloHumans() {
+        List<Human> humans = new ArrayList<>();
+        for(int row = 0; row < field.getDepth(); row++) {
+            int globalRow = row + fieldTop;
+            if(globalRow >= top && globalRow < bottom) {
+                continue;
+            }
+            for(int col = 0; col < field.getWidth(); col++) {
+                Human human = field.getObjectAt(row, col);
+                if(human != null) {
+                    humans.add(human);
+                }
+            }
+        }
+        return humans;
+    }
+
+    /** The state of some humans, RECORD_INTS ints each, as sent to a neighbour */
+    private static class Records
+    {
+        // The ints of the records, with global rows.
+        private int[] values = new int[16 * RECORD_INTS];
+        // The number of ints used.
+        private int size;
+
+        /** Add the record of a human.
+         * @param field The field of the human.
+         * @param fieldTop The global row of the first row of the field.
+         * @param human The human */
+        void add(Field field, int fieldTop, Human human) {
+            if(size + RECORD_INTS > values.length) {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            HumanStore store = field.getHumanStore();
+            int handle = human.getHandle();
+            values[size++] = store.getRow(handle) + fieldTop;
+            values[size++] = store.getCol(handle);
+            values[size++] = field.getStep() - store.getBirthStep(handle);
+            values[size++] = store.getRecoveryStep(handle);
+            values[size++] = store.getDeathStep(handle);
+            values[size++] = store.getFlags(handle);
+        }
+
+        /** Write the records to a neighbour */
+        void write(DataOutputStream out) throws IOException {
+            out.writeInt(size / RECORD_INTS);
+            for(int i = 0; i < size; i++) {
+                out.writeInt(values[i]);
+            }
+            out.flush();
+        }
+
+        /** @return The records read from a neighbour */
+        static Records read(DataInputStream in) throws IOException {
+            Records records = new Records();
+            records.size = in.readInt() * RECORD_INTS;
+            if(records.size > records.values.length) {
+                records.values = new int[records.size];
+            }
+            for(int i = 0; i < records.size; i++) {
+                records.values[i] = in.readInt();
+            }
+            return records;
+        }
+    }
+}
@@ -0,0 +1,251 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/** Run many simulations at once: every point of a grid of configurations, each as many
+ * times as asked with different seeds (a Monte Carlo ensemble). The simulations run on a
+ * bounded pool of threads, one simulation per thread at a time, and the final statistics of
+ * each are added to QuantileSketches of its point. Only a few simulations more than there
+ * are threads are submitted ahead of those running, so the memory needed does not grow with
+ * the number of points or replicas. Replica r of every point uses the seed base + r, so the points are
+ * compared on the same random draws as far as possible.
+ *
+ * From the command line:
+ * java SweepRunner width depth steps replicas seed output [threads] [parameter=v1,v2,...]...
+ * runs the grid of all the combinations of the values given for the parameters (see
+ * SimulationConfig) and writes the mean and 5%, 50% and 95% quantiles of the population,
+ * infected, vaccinated and dead of each point to the output file as CSV */
+public class SweepRunner
+{
+    // How SweepRunner is used from the command line.
+    private static final String USAGE = "usage: java SweepRunner <width> <depth> <steps> <replicas> <seed> "
+            + "<output file> [<threads>] [<parameter>=<value>,<value>...]...";
+    // The names of the statistics summarized for every point.
+    private static final String[] STATISTICS = { "population", "infected", "vaccinated", "dead" };
+    // The quantiles written for every statistic.
+    private static final double[] QUANTILES = { 0.05, 0.5, 0.95 };
+    // The relative accuracy of the quantiles.
+    private static final double ACCURACY = 0.01;
+    // The largest value of a statistic, which are ints.
+    private static final double MAX_VALUE = Integer.MAX_VALUE;
+
+    // The depth and width of the fields.
+    private final int depth, width;
+    // The number of steps of every simulation.
+    private final int steps;
+    // The number of simulations of every point.
+    private final int replicas;
+    // The seed of the first replica of every point.
+    private final long baseSeed;
+    // The number of simulations run at the same time.
+    private final int threads;
+
+    /** Create a runner of sweeps.
+     * @param depth The depth of the fields.
+     * @param width The width of the fields.
+     * @param steps The number of steps of every simulation.
+     * @param replicas The number of simulations of every point.
+     * @param baseSeed The seed of the first replica of every point.
+     * @param threads The number of simulations run at the same time */
+    public SweepRunner(int depth, int width, int steps, int replicas, long baseSeed, int threads) {
+        if(depth <= 0 || width <= 0 || steps < 0 || replicas < 1 || threads < 1) {
+            throw new IllegalArgumentException("Bad sweep: " + depth + "x" + width + ", " + steps
+                    + " steps, " + replicas + " replicas, " + threads + " threads");
+        }
+        this.depth = depth;
+        this.width = width;
+        this.steps = steps;
+        this.replicas = replicas;
+        this.baseSeed = baseSeed;
+        this.threads = threads;
+    }
+
+    /** Run every replica of every point and summarize their final statistics.
+     * @param points The configurations to run.
+     * @return The summary of each point, in the order of the points */
+    public List<Summary> run(List<SimulationConfig> points) throws InterruptedException {
+        List<Summary> summaries = new ArrayList<>(points.size());
+        for(SimulationConfig point : points) {
+            summaries.add(new Summary(point));
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            CompletionService<Void> runs = new ExecutorCompletionService<>(pool);
+            // One more simulation than there are threads waits to run, so none is ever idle.
+            int inFlight = 0;
+            for(int replica = 0; replica < replicas; replica++) {
+                for(Summary summary : summaries) {
+                    if(inFlight > threads) {
+                        runs.take().get();
+                        inFlight--;
+                    }
+                    long seed = baseSeed + replica;
+                    runs.submit(() -> summary.add(runOne(summary.getConfig(), seed)), null);
+                    inFlight++;
+                }
+            }
+            for(; inFlight > 0; inFlight--) {
+                runs.take().get();
+            }
+        }
+        catch(ExecutionException e) {
+            throw new IllegalStateException("A simulation failed", e.getCause());
+        }
+        finally {
+            pool.shutdownNow();
+        }
+        return summaries;
+    }
+
+    /** Run one simulation to the end.
+     * @param config The configuration of the simulation.
+     * @param seed The seed of the simulation.
+     * @return The statistics of its field at the end */
+    private FieldStats runOne(SimulationConfig config, long seed) {
+        Simulator simulator = new Simulator(new Field(depth, width), config, seed);
+        simulator.simulate(steps);
+        return simulator.getField().getStats();
+    }
+
+    /** Make the grid of all the combinations of the values of some parameters.
+     * @param base The configuration of the parameters not in the grid.
+     * @param parameters The names of the parameters of the grid.
+     * @param values For each parameter, its values.
+     * @return The configurations of the grid, the last parameter varying fastest */
+    public static List<SimulationConfig> grid(SimulationConfig base, List<String> parameters, List<double[]> values) {
+        List<SimulationConfig> points = new ArrayList<>();
+        points.add(base);
+        for(int p = 0; p < parameters.size(); p++) {
+            List<SimulationConfig> more = new ArrayList<>();
+            for(SimulationConfig point : points) {
+                for(double value : values.get(p)) {
+                    more.add(point.with(parameters.get(p), value));
+                }
+            }
+            points = more;
+        }
+        return points;
+    }
+
+    /** Run a sweep from the command line.
+     * @param args See USAGE */
+    public static void main(String[] args) {
+        if(args.length < 6) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+        try {
+            int next = 6;
+            int threads = Runtime.getRuntime().availableProcessors();
+            if(args.length > next && !args[next].contains("=")) {
+                threads = Integer.parseInt(args[next++]);
+            }
+            List<String> parameters = new ArrayList<>();
+            List<double[]> values = new ArrayList<>();
+            for(; next < args.length; next++) {
+                String[] parts = args[next].split("=", 2);
+                if(parts.length != 2) {
+                    throw new IllegalArgumentException("Not a parameter and its values: " + args[next]);
+                }
+                String[] texts = parts[1].split(",");
+                double[] parsed = new double[texts.length];
+                for(int i = 0; i < texts.length; i++) {
+                    parsed[i] = Double.parseDouble(texts[i]);
+                }
+                parameters.add(parts[0]);
+                values.add(parsed);
+            }
+            List<SimulationConfig> points = grid(SimulationConfig.DEFAULT, parameters, values);
+            SweepRunner runner = new SweepRunner(Integer.parseInt(args[1]), Integer.parseInt(args[0]),
+                    Integer.parseInt(args[2]), Integer.parseInt(args[3]), Long.parseLong(args[4]), threads);
+            long start = System.nanoTime();
+            List<Summary> summaries = runner.run(points);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            write(summaries, args[5]);
+            System.out.printf("%d points x %d replicas in %.3f s%n", points.size(), runner.replicas, seconds);
+        }
+        catch(IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+        catch(IOException e) {
+            System.err.println("Cannot write " + args[5] + ": " + e.getMessage());
+            System.exit(1);
+        }
+        catch(InterruptedException e) {
+            System.err.println("Interrupted");
+            System.exit(1);
+        }
+    }
+
+    /** Write the summaries of a sweep as CSV, one line per point and statistic.
+     * @param summaries The summaries.
+     * @param output The file to write */
+    private static void write(List<Summary> summaries, String output) throws IOException {
+        try(PrintWriter out = new PrintWriter(new FileWriter(output))) {
+            out.print("point,config,statistic,replicas,mean");
+            for(double q : QUANTILES) {
+                out.print(",p" + Math.round(q * 100));
+            }
+            out.println();
+            for(int p = 0; p < summaries.size(); p++) {
+                Summary summary = summaries.get(p);
+                for(int s = 0; s < STATISTICS.length; s++) {
+                    QuantileSketch sketch = summary.getSketch(s);
+                    out.print(p + ",\"" + summary.getConfig() + "\"," + STATISTICS[s] + ","
+                            + sketch.getCount() + "," + sketch.getMean());
+                    for(double q : QUANTILES) {
+                        out.print("," + sketch.quantile(q));
+                    }
+                    out.println();
+                }
+            }
+        }
+    }
+
+    /** The final statistics of the replicas of one point of a sweep */
+    public static class Summary
+    {
+        // The configuration of the point.
+        private final SimulationConfig config;
+        // A sketch for each of STATISTICS.
+        private final QuantileSketch[] sketches;
+
+        /** Create an empty summary.
+         * @param config The configuration of the point */
+        Summary(SimulationConfig config) {
+            this.config = config;
+            sketches = new QuantileSketch[STATISTICS.length];
+            for(int s = 0; s < sketches.length; s++) {
+                sketches[s] = new QuantileSketch(ACCURACY, MAX_VALUE);
+            }
+        }
+
+        /** Add the final statistics of a replica */
+        void add(FieldStats stats) {
+            sketches[0].add(stats.getPopulation());
+            sketches[1].add(stats.infectedCount());
+            sketches[2].add(stats.vaccinatedCount());
+            sketches[3].add(stats.deadCount());
+        }
+
+        /** @return The configuration of the point */
+        public SimulationConfig getConfig() {
+            return config;
+        }
+
+        /** @param statistic The index of a statistic: population, infected, vaccinated or dead.
+         * @return The sketch of the statistic */
+        public QuantileSketch getSketch(int statistic) {
+            return sketches[statistic];
+        }
+    }
+}
@@ -0,0 +1,172 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.random.RandomGenerator;
+import java.util.random.RandomGeneratorFactory;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/** Perform the steps of a simulation on several threads. The field is split into square
+ * tiles, coloured like a checkerboard with four colours so that two tiles of the same
+ * colour are always a whole tile apart. A human only reads and writes positions at most
+ * two rows and columns away from where it starts the step, so all tiles of one colour can
+ * be updated at the same time without any locking. The four colours are done one after
+ * the other, each as fork/join tasks that idle threads can steal.
+ *
+ * Every tile draws from its own stream of the Randomizer, identified by the seed of the
+ * simulation, the step and the tile, so a run repeats exactly for the same seed and tile
+ * size, whatever the number of threads. Each thread keeps one generator and starts it over
+ * as the stream of every tile it updates, so no generator is made for a tile */
+public class TiledStepper
+{
+    // The smallest tile size that keeps the tiles of one colour independent.
+    public static final int MIN_TILE_SIZE = 4;
+
+    // The pool the tiles are updated on.
+    private final ForkJoinPool pool;
+    // The store of the humans of the field, which keeps the dead ones for new births.
+    private final HumanStore store;
+    // The number of rows and columns of a tile.
+    private final int tileSize;
+    // The number of tiles across the width of the field.
+    private final int tileColumns;
+    // For each of the four colours, the indices of its tiles.
+    private final int[][] tilesByColour;
+    // For each tile, the humans that start the step in it.
+    private final List<List<Human>> residents;
+    // For each tile, the humans born in it during the step.
+    private final List<List<Human>> births;
+    // The algorithm and seed of the random streams of the current step.
+    private RandomGeneratorFactory<RandomGenerator> algorithm;
+    private long seed;
+    // The generator of each thread updating tiles, started over as the stream of each tile.
+    private final ThreadLocal<BufferedRandom> streams = ThreadLocal.withInitial(() -> Randomizer.getStream(0, 0));
+
+    /** Create a stepper for the given field.
+     * @param field The field whose humans are updated.
+     * @param threads The number of threads to update tiles on.
+     * @param tileSize The number of rows and columns of a tile, at least MIN_TILE_SIZE */
+    public TiledStepper(Field field, int threads, int tileSize) {
+        if(threads < 1) {
+            throw new IllegalArgumentException("At least one thread is needed: " + threads);
+        }
+        if(tileSize < MIN_TILE_SIZE) {
+            throw new IllegalArgumentException("The tile size must be at least " + MIN_TILE_SIZE + ": " + tileSize);
+        }
+        this.pool = new ForkJoinPool(threads);
+        store = field.getHumanStore();
+        this.tileSize = tileSize;
+        tileColumns = (field.getWidth() + tileSize - 1) / tileSize;
+        int tileRows = (field.getDepth() + tileSize - 1) / tileSize;
+        int tiles = tileRows * tileColumns;
+
+        residents = new ArrayList<>(tiles);
+        births = new ArrayList<>(tiles);
+        int[] coloured = new int[4];
+        for(int tile = 0; tile < tiles; tile++) {
+            residents.add(new ArrayList<>());
+            births.add(new ArrayList<>());
+            coloured[colour(tile)]++;
+        }
+        tilesByColour = new int[4][];
+        for(int c = 0; c < 4; c++) {
+            tilesByColour[c] = new int[coloured[c]];
+            coloured[c] = 0;
+        }
+        for(int tile = 0; tile < tiles; tile++) {
+            int c = colour(tile);
+            tilesByColour[c][coloured[c]++] = tile;
+        }
+    }
+
+    /** Let every human act once, removing the dead and adding the newborn.
+     * The humans keep their order, and the newborn follow them in the order of their tiles.
+     * @param humans All the humans in the field.
+     * @param algorithm The algorithm of the simulation, see Randomizer.getStream.
+     * @param seed The seed of the simulation, see Randomizer.getStream.
+     * @param step The number of the step, which selects the random streams of the tiles */
+    public void step(List<Human> humans, RandomGeneratorFactory<RandomGenerator> algorithm, long seed, int step) {
+        this.algorithm = algorithm;
+        this.seed = seed;
+        for(Human human : humans) {
+            // Humans that died at the start of the step have no position.
+            if(human.isAlive()) {
+                residents.get(tile(human.getRow(), human.getCol())).add(human);
+            }
+        }
+        for(int[] tiles : tilesByColour) {
+            pool.invoke(new TileTask(tiles, 0, tiles.length, step));
+        }
+        store.removeDead(humans);
+        for(int tile = 0; tile < residents.size(); tile++) {
+            humans.addAll(births.get(tile));
+            residents.get(tile).clear();
+            births.get(tile).clear();
+        }
+    }
+
+    /** Stop the threads of the stepper. It cannot be used afterwards */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /** @return The number of rows and columns of a tile */
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    /** @return The number of threads tiles are updated on */
+    public int getThreads() {
+        return pool.getParallelism();
+    }
+
+    /** @return The index of the tile containing the given position */
+    private int tile(int row, int col) {
+        return (row / tileSize) * tileColumns + col / tileSize;
+    }
+
+    /** @return The colour (0 to 3) of a tile, from the parity of its row and column */
+    private int colour(int tile) {
+        return ((tile / tileColumns) & 1) * 2 + ((tile % tileColumns) & 1);
+    }
+
+    /** Update a range of tiles of one colour, splitting it so idle threads can steal half */
+    private class TileTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final int[] tiles;
+        private final int from, to;
+        private final int step;
+
+        /** Create a task for tiles[from] up to, but not including, tiles[to] */
+        TileTask(int[] tiles, int from, int to, int step) {
+            this.tiles = tiles;
+            this.from = from;
+            this.to = to;
+            this.step = step;
+        }
+
+        /** Update the tiles of the range, or split it in two */
+        @Override
+        protected void compute() {
+            if(to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new TileTask(tiles, from, middle, step),
+                        new TileTask(tiles, middle, to, step));
+            }
+            else if(to > from) {
+                int tile = tiles[from];
+                List<Human> tileResidents = residents.get(tile);
+                if(!tileResidents.isEmpty()) {
+                    // Stream 0 of each step is used by the single threaded steps.
+                    BufferedRandom rand = streams.get();
+                    Randomizer.reseed(rand, algorithm, seed, step, tile + 1);
+                    List<Human> tileBirths = births.get(tile);
+                    for(Human human : tileResidents) {
+                        human.move(tileBirths, rand);
+                    }
+                }
+            }
+        }
+    }
+}
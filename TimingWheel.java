@@ -0,0 +1,220 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+/** The transitions the humans of a field are due to make at later steps: growing too old,
+ * recovering from an infection and dying of it. They are drawn when they become certain,
+ * e.g. when a human is born or infected, so a step only visits the humans due at it
+ * instead of asking every human whether its time has come.
+ *
+ * The wheel is hierarchical: the next 256 steps each have a slot, the 256 blocks of 256
+ * steps after them share a slot per block, and anything further is kept in one overflow
+ * slot. When the steps reach a block its transitions are moved down to the slots of single
+ * steps, so scheduling and firing a transition take constant time however far ahead it is.
+ *
+ * Transitions can be scheduled from several threads during a parallel step without a lock:
+ * each worker thread of a fork/join pool adds them to a pending slot of its own, picked by
+ * its index in the pool, and the pending slots are merged into the wheel when it is
+ * advanced, which is only done between steps. A thread outside a pool, such as the one
+ * running the steps, inserts them at once, so only one such thread may schedule at a time.
+ * The order in which transitions of the same step fire does not change their outcome. A
+ * transition is ignored if its human has died, or has been given a new life since it was
+ * scheduled */
+public class TimingWheel
+{
+    // The kinds of transitions.
+    public static final int AGE_OUT = 0;
+    public static final int RECOVERY = 1;
+    public static final int DEATH = 2;
+
+    // The number of steps of a slot of the second level, as a power of two.
+    private static final int LEVEL_SHIFT = 8;
+    // The number of slots of a level.
+    private static final int SLOTS = 1 << LEVEL_SHIFT;
+    // The low bits of a step selecting its slot in a level.
+    private static final int SLOT_MASK = SLOTS - 1;
+
+    // The slots of the next steps, by step modulo SLOTS.
+    private final Slot[] steps;
+    // The slots of the next blocks of SLOTS steps, by block modulo SLOTS.
+    private final Slot[] blocks;
+    // The transitions beyond the blocks.
+    private final Slot overflow;
+    // The transitions taken out of a slot to be fired or moved down.
+    private final Slot due;
+    // The step the wheel is at.
+    private int step;
+    // The slots the worker threads of fork/join pools add the transitions they schedule to
+    // until they are merged, by the index of the thread in its pool. It only grows, under
+    // the lock of the wheel, keeping the slots it had.
+    private volatile Slot[] pending;
+
+    /** Create an empty wheel at step 0 */
+    public TimingWheel() {
+        steps = new Slot[SLOTS];
+        blocks = new Slot[SLOTS];
+        for(int i = 0; i < SLOTS; i++) {
+            steps[i] = new Slot();
+            blocks[i] = new Slot();
+        }
+        overflow = new Slot();
+        due = new Slot();
+        pending = new Slot[0];
+    }
+
+    /** Remove every transition and move the wheel to a step.
+     * @param step The step the wheel is at from now on */
+    public void clear(int step) {
+        for(int i = 0; i < SLOTS; i++) {
+            steps[i].clear();
+            blocks[i].clear();
+        }
+        overflow.clear();
+        for(Slot slot : pending) {
+            slot.clear();
+        }
+        this.step = step;
+    }
+
+    /** @return The step the wheel is at, i.e. the current step of the simulation */
+    public int getStep() {
+        return step;
+    }
+
+    /** Schedule a transition of a human. From a worker thread of a fork/join pool it joins
+     * the wheel when the wheel is next advanced.
+     * @param human The human.
+     * @param kind The kind of transition: AGE_OUT, RECOVERY or DEATH.
+     * @param when The step of the transition. A step that is not after the current one
+     *             is taken to be the next step */
+    public void schedule(Human human, int kind, int when) {
+        Thread thread = Thread.currentThread();
+        if(!(thread instanceof ForkJoinWorkerThread)) {
+            insert(human, human.getLife(), kind, Math.max(when, step + 1));
+            return;
+        }
+        int index = ((ForkJoinWorkerThread) thread).getPoolIndex();
+        Slot[] slots = pending;
+        Slot slot = index < slots.length ? slots[index] : pendingSlot(index);
+        slot.add(human, human.getLife(), kind, Math.max(when, step + 1));
+    }
+
+    /** Move the wheel on to a step, making the transitions due at every step on the way.
+     * Humans may die, so this must not be called while humans are being updated.
+     * @param to The step to move to */
+    public void advance(int to) {
+        merge();
+        while(step < to) {
+            step++;
+            if((step & SLOT_MASK) == 0) {
+                if((step >>> LEVEL_SHIFT & SLOT_MASK) == 0) {
+                    reinsert(overflow);
+                }
+                reinsert(blocks[step >>> LEVEL_SHIFT & SLOT_MASK]);
+            }
+            due.takeAll(steps[step & SLOT_MASK]);
+            for(int i = 0; i < due.size; i++) {
+                due.humans[i].transition(due.kinds[i], due.lives[i]);
+            }
+            due.clear();
+        }
+    }
+
+    /** Insert the transitions of the pending slots of every thread */
+    private void merge() {
+        for(Slot slot : pending) {
+            for(int i = 0; i < slot.size; i++) {
+                insert(slot.humans[i], slot.lives[i], slot.kinds[i], slot.whens[i]);
+            }
+            slot.clear();
+        }
+    }
+
+    /** Grow the pending slots to include an index, the first time a thread of that index
+     * schedules a transition.
+     * @return The pending slot of the index */
+    private synchronized Slot pendingSlot(int index) {
+        Slot[] slots = pending;
+        if(index >= slots.length) {
+            int length = slots.length;
+            slots = Arrays.copyOf(slots, Math.max(index + 1, 2 * length));
+            for(int i = length; i < slots.length; i++) {
+                slots[i] = new Slot();
+            }
+            pending = slots;
+        }
+        return slots[index];
+    }
+
+    /** Put a transition into the slot of its step, block or the overflow */
+    private void insert(Human human, int life, int kind, int when) {
+        if(when >>> LEVEL_SHIFT == step >>> LEVEL_SHIFT) {
+            steps[when & SLOT_MASK].add(human, life, kind, when);
+        }
+        else if(when >>> 2 * LEVEL_SHIFT == step >>> 2 * LEVEL_SHIFT) {
+            blocks[when >>> LEVEL_SHIFT & SLOT_MASK].add(human, life, kind, when);
+        }
+        else {
+            overflow.add(human, life, kind, when);
+        }
+    }
+
+    /** Take every transition out of a slot and insert it again, closer to its step */
+    private void reinsert(Slot slot) {
+        due.takeAll(slot);
+        for(int i = 0; i < due.size; i++) {
+            insert(due.humans[i], due.lives[i], due.kinds[i], due.whens[i]);
+        }
+        due.clear();
+    }
+
+    /** The transitions of a slot, in parallel arrays that grow as needed */
+    private static class Slot
+    {
+        // The human, its life, the kind and the step of each transition.
+        private Human[] humans = new Human[4];
+        private int[] lives = new int[4];
+        private byte[] kinds = new byte[4];
+        private int[] whens = new int[4];
+        // The number of transitions.
+        private int size;
+
+        /** Add a transition */
+        void add(Human human, int life, int kind, int when) {
+            if(size == humans.length) {
+                humans = Arrays.copyOf(humans, size * 2);
+                lives = Arrays.copyOf(lives, size * 2);
+                kinds = Arrays.copyOf(kinds, size * 2);
+                whens = Arrays.copyOf(whens, size * 2);
+            }
+            humans[size] = human;
+            lives[size] = life;
+            kinds[size] = (byte) kind;
+            whens[size] = when;
+            size++;
+        }
+
+        /** Move every transition of another slot into this one, which must be empty */
+        void takeAll(Slot other) {
+            Human[] emptyHumans = humans;
+            int[] emptyLives = lives;
+            byte[] emptyKinds = kinds;
+            int[] emptyWhens = whens;
+            humans = other.humans;
+            lives = other.lives;
+            kinds = other.kinds;
+            whens = other.whens;
+            size = other.size;
+            other.humans = emptyHumans;
+            other.lives = emptyLives;
+            other.kinds = emptyKinds;
+            other.whens = emptyWhens;
+            other.size = 0;
+        }
+
+        /** Remove every transition, letting go of the humans */
+        void clear() {
+            Arrays.fill(humans, 0, size, null);
+            size = 0;
+        }
+    }
+}
@@ -0,0 +1,402 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import javax.swing.SwingUtilities;
+
+/** Play back a trace written by a TraceRecorder, without simulating anything: the state of
+ * every human is rebuilt from the events of each step, so a run can be looked at again as
+ * fast as the file can be read. The player can seek to any step, starting from the last
+ * keyframe before it. At every step it provides the statistics of the field and, on
+ * request, a FieldSnapshot to show in a SimulatorView.
+ *
+ * From the command line, java TracePlayer trace [first step [last step]] writes the
+ * statistics of every step as CSV, in the columns of MetricsSink, and java TracePlayer
+ * --view trace plays the trace in a SimulatorView */
+public class TracePlayer implements AutoCloseable
+{
+    // How TracePlayer is used from the command line.
+    private static final String USAGE = "usage: java TracePlayer <trace file> [<first step> [<last step>]]\n"
+            + "       java TracePlayer --view <trace file>";
+    // The option that plays the trace in a SimulatorView.
+    private static final String VIEW = "--view";
+    // The number of bytes of the header of a trace.
+    private static final int HEADER_SIZE = 4 * Integer.BYTES;
+
+    // The file played.
+    private final FileChannel channel;
+    // The depth and width of the field.
+    private final int depth, width;
+    // The steps of the keyframes and the offsets of their records, in the order of the file.
+    private int[] keyframeSteps = new int[16];
+    private long[] keyframeOffsets = new long[16];
+    // The number of keyframes.
+    private int keyframes;
+    // Reads the records from the current position of the file.
+    private DataInputStream in;
+    // The rest of the record being played.
+    private byte[] record = new byte[1 << 12];
+    // The number of bytes of the record, and the position in it.
+    private int length, position;
+
+    // The state of each handle: the row, column and flags of its human, or -1 flags if the
+    // handle is free.
+    private int[] rows = new int[0], cols = new int[0], flags = new int[0];
+    // The step played last, or -1 if none has been.
+    private int step = -1;
+    // The statistics of the field at the step played last.
+    private int population, infected, vaccinated, quarantined, births, deaths;
+
+    /** Open a trace and find its keyframes. The player starts before the first record.
+     * @param file The trace file.
+     * @throws IOException If the file cannot be read, or is not a trace of this version */
+    public TracePlayer(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            in = open(0);
+            if(channel.size() < HEADER_SIZE || in.readInt() != TraceRecorder.MAGIC) {
+                throw new IOException("Not a trace: " + file);
+            }
+            int version = in.readInt();
+            if(version != TraceRecorder.VERSION) {
+                throw new IOException("Unsupported trace version " + version + ": " + file);
+            }
+            depth = in.readInt();
+            width = in.readInt();
+            index();
+            in = open(HEADER_SIZE);
+        }
+        catch(IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /** Move on to the next step of the trace.
+     * @return false if the trace has no more steps
+     * @throws IOException If the file cannot be read or is corrupt */
+    public boolean next() throws IOException {
+        int type = in.read();
+        if(type < 0) {
+            return false;
+        }
+        int recordStep = readVarint(in);
+        length = readVarint(in);
+        if(length > record.length) {
+            record = new byte[Math.max(length, record.length * 2)];
+        }
+        in.readFully(record, 0, length);
+        position = 0;
+        if(type == TraceRecorder.KEYFRAME) {
+            playKeyframe();
+        }
+        else if(type == TraceRecorder.STEP) {
+            playStep();
+        }
+        else {
+            throw new IOException("Corrupt trace: record of type " + type);
+        }
+        step = recordStep;
+        return true;
+    }
+
+    /** Go to a step of the trace: to its last keyframe at or before the step, then on to
+     * the step itself.
+     * @param target The step.
+     * @return false if the trace does not reach the step, in which case the player is at
+     *         the last step of the trace
+     * @throws IOException If the file cannot be read or is corrupt */
+    public boolean seek(int target) throws IOException {
+        int keyframe = -1;
+        for(int i = 0; i < keyframes; i++) {
+            if(keyframeSteps[i] <= target) {
+                keyframe = i;
+            }
+        }
+        in = open(keyframe >= 0 ? keyframeOffsets[keyframe] : HEADER_SIZE);
+        step = -1;
+        while(step != target) {
+            if(!next()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** @return A picture of the field at the step played last, e.g. for SimulatorView.showStatus */
+    public FieldSnapshot snapshot() {
+        int[] colors = new int[depth * width];
+        for(int handle = 0; handle < flags.length; handle++) {
+            if(flags[handle] >= 0) {
+                colors[rows[handle] * width + cols[handle]] = Human.colorOf(flags[handle]).getRGB();
+            }
+        }
+        return new FieldSnapshot(step, depth, width, colors, population, infected, vaccinated, deaths);
+    }
+
+    /** @return The step played last, or -1 if none has been */
+    public int getStep() {
+        return step;
+    }
+
+    /** @return The depth of the field */
+    public int getDepth() {
+        return depth;
+    }
+
+    /** @return The width of the field */
+    public int getWidth() {
+        return width;
+    }
+
+    /** @return The number of humans in the field */
+    public int getPopulation() {
+        return population;
+    }
+
+    /** @return The number of infected humans in the field */
+    public int getInfected() {
+        return infected;
+    }
+
+    /** @return The number of vaccinated humans in the field */
+    public int getVaccinated() {
+        return vaccinated;
+    }
+
+    /** @return The number of infected humans in quarantine */
+    public int getQuarantined() {
+        return quarantined;
+    }
+
+    /** @return The number of humans born so far */
+    public int getBirths() {
+        return births;
+    }
+
+    /** @return The number of humans that died so far */
+    public int getDeaths() {
+        return deaths;
+    }
+
+    /** Close the file */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /** Play a trace from the command line.
+     * @param args See USAGE */
+    public static void main(String[] args) {
+        if(args.length == 2 && args[0].equals(VIEW)) {
+            view(args[1]);
+            return;
+        }
+        if(args.length < 1 || args.length > 3) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+        try(TracePlayer player = new TracePlayer(Path.of(args[0]))) {
+            int first = args.length > 1 ? Integer.parseInt(args[1]) : 0;
+            int last = args.length > 2 ? Integer.parseInt(args[2]) : Integer.MAX_VALUE;
+            PrintStream out = new PrintStream(new BufferedOutputStream(System.out, 1 << 16), false);
+            out.println("step,population,infected,vaccinated,quarantined,births,deaths");
+            long start = System.nanoTime();
+            boolean more = player.seek(first);
+            int steps = 0;
+            while(more && player.getStep() <= last) {
+                out.println(player.getStep() + "," + player.getPopulation() + "," + player.getInfected() + ","
+                        + player.getVaccinated() + "," + player.getQuarantined() + ","
+                        + player.getBirths() + "," + player.getDeaths());
+                steps++;
+                more = player.next();
+            }
+            out.flush();
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.err.printf("%d steps played in %.3f s%n", steps, seconds);
+        }
+        catch(NumberFormatException e) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+        catch(IOException e) {
+            System.err.println("Cannot play " + args[0] + ": " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** Play a trace in a SimulatorView, which keeps the player until the window is closed.
+     * @param file The name of the trace file */
+    private static void view(String file) {
+        TracePlayer player;
+        try {
+            player = new TracePlayer(Path.of(file));
+        }
+        catch(IOException e) {
+            System.err.println("Cannot play " + file + ": " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+        SwingUtilities.invokeLater(() -> new SimulatorView(player));
+    }
+
+    /** Find the keyframes of the file, skipping over the rest of the records */
+    private void index() throws IOException {
+        long offset = HEADER_SIZE;
+        while(true) {
+            int type = in.read();
+            if(type < 0) {
+                break;
+            }
+            int recordStep = readVarint(in);
+            int length = readVarint(in);
+            if(type == TraceRecorder.KEYFRAME) {
+                if(keyframes == keyframeSteps.length) {
+                    keyframeSteps = Arrays.copyOf(keyframeSteps, keyframes * 2);
+                    keyframeOffsets = Arrays.copyOf(keyframeOffsets, keyframes * 2);
+                }
+                keyframeSteps[keyframes] = recordStep;
+                keyframeOffsets[keyframes] = offset;
+                keyframes++;
+            }
+            in.skipNBytes(length);
+            offset += 1 + varintSize(recordStep) + varintSize(length) + length;
+        }
+    }
+
+    /** Replace the state with that of the keyframe in record */
+    private void playKeyframe() throws IOException {
+        births = nextVarint();
+        deaths = nextVarint();
+        int count = nextVarint();
+        Arrays.fill(flags, -1);
+        population = infected = vaccinated = quarantined = 0;
+        int handle = 0;
+        for(int i = 0; i < count; i++) {
+            handle += nextVarint();
+            grow(handle);
+            rows[handle] = nextVarint();
+            cols[handle] = nextVarint();
+            add(handle, nextVarint(), 1);
+        }
+    }
+
+    /** Apply the events of the step in record to the state */
+    private void playStep() throws IOException {
+        if(step < 0) {
+            throw new IOException("Corrupt trace: a step without a keyframe before it");
+        }
+        births += nextZigzag();
+        deaths += nextZigzag();
+        int count = nextVarint();
+        int handle = 0;
+        for(int i = 0; i < count; i++) {
+            int event = nextVarint();
+            handle += event >>> 2;
+            grow(handle);
+            switch(event & 3) {
+                case TraceRecorder.DEATH:
+                    add(handle, flags[handle], -1);
+                    flags[handle] = -1;
+                    break;
+                case TraceRecorder.BIRTH:
+                    rows[handle] = nextVarint();
+                    cols[handle] = nextVarint();
+                    add(handle, nextVarint(), 1);
+                    break;
+                case TraceRecorder.MOVE:
+                    rows[handle] += nextZigzag();
+                    cols[handle] += nextZigzag();
+                    break;
+                default:
+                    add(handle, flags[handle], -1);
+                    add(handle, nextVarint(), 1);
+                    break;
+            }
+        }
+    }
+
+    /** Count a human in or out of the statistics, and set its flags.
+     * @param handle The handle of the human.
+     * @param flag The flags of the human.
+     * @param sign 1 to count the human in, -1 to count it out */
+    private void add(int handle, int flag, int sign) {
+        population += sign;
+        if((flag & HumanStore.INFECTED) != 0) {
+            infected += sign;
+            if((flag & HumanStore.QUARANTINE) != 0) {
+                quarantined += sign;
+            }
+        }
+        if((flag & HumanStore.VACCINATED) != 0) {
+            vaccinated += sign;
+        }
+        flags[handle] = flag;
+    }
+
+    /** Make room for the state of a handle */
+    private void grow(int handle) {
+        if(handle >= flags.length) {
+            int size = Math.max(handle + 1, flags.length * 2);
+            int old = flags.length;
+            rows = Arrays.copyOf(rows, size);
+            cols = Arrays.copyOf(cols, size);
+            flags = Arrays.copyOf(flags, size);
+            Arrays.fill(flags, old, size, -1);
+        }
+    }
+
+    /** @return A stream reading the file from the given offset */
+    private DataInputStream open(long offset) throws IOException {
+        InputStream stream = Channels.newInputStream(channel.position(offset));
+        return new DataInputStream(new BufferedInputStream(stream, 1 << 16));
+    }
+
+    /** @return The next unsigned varint of the record */
+    private int nextVarint() throws IOException {
+        int value = 0;
+        for(int shift = 0; shift < 35; shift += 7) {
+            if(position >= length) {
+                throw new EOFException("Corrupt trace: a record ends in a number");
+            }
+            int b = record[position++];
+            value |= (b & 0x7F) << shift;
+            if(b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("Corrupt trace: a number is too long");
+    }
+
+    /** @return The next zigzag encoded varint of the record */
+    private int nextZigzag() throws IOException {
+        int value = nextVarint();
+        return value >>> 1 ^ -(value & 1);
+    }
+
+    /** @return The next unsigned varint of a stream */
+    private static int readVarint(DataInputStream in) throws IOException {
+        int value = 0;
+        for(int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if(b < 0x80) {
+                return value;
+            }
+        }
+        throw new IOException("Corrupt trace: a number is too long");
+    }
+
+    /** @return The number of bytes of the varint of a value */
+    private static int varintSize(int value) {
+        return value == 0 ? 1 : (38 - Integer.numberOfLeadingZeros(value)) / 7;
+    }
+}
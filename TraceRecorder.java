@@ -0,0 +1,299 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/** Record what happens to every human of a simulation into a compact file, so the run can
+ * be looked at again without simulating it (see TracePlayer). As an observer of the
+ * simulation it compares the state of every handle of the human store with the state it
+ * had at the previous step, and writes what changed: births, deaths, moves and changes of
+ * the flags (infection, vaccination, quarantine and color). Every so many steps, and
+ * whenever the simulation jumps to another step (a reset or a restored checkpoint), it
+ * writes a keyframe holding the whole state instead, where a player can start.
+ *
+ * The file starts with the magic "HSTR", the version, the depth and the width of the field
+ * as big-endian ints. Then comes a record per step: its type (KEYFRAME or STEP) as a byte,
+ * the step and the length of the rest of the record as varints, then the rest:
+ * <ul>
+ * <li>A keyframe holds the births and deaths so far and the number of living humans, then
+ *     for each of them, by increasing handle, the gap from the previous handle, its row, its
+ *     column and its flags.</li>
+ * <li>A step holds the change in births and deaths since the previous step and the number of
+ *     events, then the events by increasing handle. An event starts with the gap from the
+ *     handle of the previous event, shifted left by two and combined with its kind. A DEATH
+ *     has nothing else, a BIRTH the row, column and flags of the human, a MOVE the change of
+ *     row and column, and FLAGS the new flags.</li>
+ * </ul>
+ * All the numbers after the header are unsigned LEB128 varints, and those that may be
+ * negative are zigzag encoded first, so a typical move takes three bytes */
+public class TraceRecorder implements SimulatorObserver
+{
+    // Identifies a trace file: "HSTR".
+    static final int MAGIC = 0x48535452;
+    // The version of the format of the file.
+    static final int VERSION = 1;
+    // The types of records.
+    static final int KEYFRAME = 1, STEP = 2;
+    // The kinds of events of a step.
+    static final int DEATH = 0, BIRTH = 1, MOVE = 2, FLAGS = 3;
+    // The number of steps between two keyframes, unless another number is given.
+    public static final int DEFAULT_KEYFRAME_INTERVAL = 100;
+
+    // The file the trace is written to.
+    private final DataOutputStream out;
+    // Whether the header of the file is still to be written, once the size of the field is known.
+    private boolean headerPending;
+    // The number of steps between two keyframes.
+    private final int keyframeInterval;
+    // The record being made.
+    private byte[] record = new byte[1 << 12];
+    // The number of bytes of the record made so far.
+    private int length;
+    // The state of each handle at the previous step: the human, or null if the handle
+    // was free, the life of the human (see Human.create), and its row, column and flags.
+    private Human[] humans = new Human[0];
+    private int[] lives = new int[0], rows = new int[0], cols = new int[0], flags = new int[0];
+    // The number of handles of the previous step.
+    private int handles;
+    // The step recorded last, or -1 before the first.
+    private int lastStep = -1;
+    // The births and deaths at the step recorded last.
+    private int births, deaths;
+    // The number of records written.
+    private long records;
+    // The number of bytes written, after the header.
+    private long bytes;
+
+    /** Create a recorder writing to the given file. It must then be added to the observers
+     * of a simulation, and be told about its current step first.
+     * @param file The file to write.
+     * @param keyframeInterval The number of steps between two keyframes.
+     * @param append Whether to add to the end of an existing trace, e.g. when a run is
+     *               resumed from a checkpoint, rather than create or empty the file. The steps
+     *               between the checkpoint and the end of the file then appear twice.
+     * @throws IOException If the file cannot be created */
+    public TraceRecorder(Path file, int keyframeInterval, boolean append) throws IOException {
+        if(keyframeInterval < 1) {
+            throw new IllegalArgumentException("The keyframe interval must be at least one step: " + keyframeInterval);
+        }
+        this.keyframeInterval = keyframeInterval;
+        boolean continued = append && Files.exists(file) && Files.size(file) > 0;
+        out = new DataOutputStream(new BufferedOutputStream(continued
+                ? Files.newOutputStream(file, StandardOpenOption.APPEND)
+                : Files.newOutputStream(file), 1 << 16));
+        headerPending = !continued;
+    }
+
+    @Override
+    public void stepCompleted(int step, Field field) {
+        try {
+            if(headerPending) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(field.getDepth());
+                out.writeInt(field.getWidth());
+                headerPending = false;
+            }
+            FieldStats stats = field.getStats();
+            if(step != lastStep + 1 || step % keyframeInterval == 0) {
+                writeKeyframe(step, field.getHumanStore(), stats);
+            }
+            else {
+                writeStep(step, field.getHumanStore(), stats);
+            }
+            lastStep = step;
+            births = stats.birthCount();
+            deaths = stats.deadCount();
+            records++;
+        }
+        catch(IOException e) {
+            throw new UncheckedIOException("Cannot write the trace", e);
+        }
+    }
+
+    /** Write everything recorded and close the file. No more steps may be recorded.
+     * @throws IOException If the file could not be written */
+    public void close() throws IOException {
+        out.close();
+    }
+
+    /** @return The number of steps recorded so far */
+    public long getRecords() {
+        return records;
+    }
+
+    /** @return The number of bytes written to the file so far, after the header */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /** Write the whole state of the humans, and remember it */
+    private void writeKeyframe(int step, HumanStore store, FieldStats stats) throws IOException {
+        length = 0;
+        int capacity = store.getCapacity();
+        grow(capacity);
+        int living = 0;
+        for(int handle = 0; handle < capacity; handle++) {
+            if(store.getHuman(handle) != null) {
+                living++;
+            }
+        }
+        putVarint(stats.birthCount());
+        putVarint(stats.deadCount());
+        putVarint(living);
+        int previous = 0;
+        for(int handle = 0; handle < capacity; handle++) {
+            Human human = store.getHuman(handle);
+            humans[handle] = human;
+            if(human != null) {
+                remember(store, handle, human);
+                putVarint(handle - previous);
+                putVarint(rows[handle]);
+                putVarint(cols[handle]);
+                putVarint(flags[handle]);
+                previous = handle;
+            }
+        }
+        if(handles > capacity) {
+            Arrays.fill(humans, capacity, handles, null);
+        }
+        handles = capacity;
+        writeRecord(KEYFRAME, step);
+    }
+
+    /** Write what changed since the previous step, and remember the new state */
+    private void writeStep(int step, HumanStore store, FieldStats stats) throws IOException {
+        length = 0;
+        int capacity = store.getCapacity();
+        grow(capacity);
+        putZigzag(stats.birthCount() - births);
+        putZigzag(stats.deadCount() - deaths);
+        // The number of events is only known at the end: leave room for the longest varint.
+        int countAt = length;
+        length += 5;
+        int events = 0;
+        int previous = 0;
+        int end = Math.max(capacity, handles);
+        for(int handle = 0; handle < end; handle++) {
+            Human before = humans[handle];
+            Human now = handle < capacity ? store.getHuman(handle) : null;
+            if(before == null && now == null) {
+                continue;
+            }
+            // The same object may have been given a new life with the same handle.
+            boolean same = before == now && lives[handle] == now.getLife();
+            if(before != null && !same) {
+                putEvent(handle - previous, DEATH);
+                previous = handle;
+                events++;
+            }
+            if(now != null && !same) {
+                remember(store, handle, now);
+                putEvent(handle - previous, BIRTH);
+                putVarint(rows[handle]);
+                putVarint(cols[handle]);
+                putVarint(flags[handle]);
+                previous = handle;
+                events++;
+            }
+            else if(now != null) {
+                int row = store.getRow(handle);
+                int col = store.getCol(handle);
+                int flag = store.getFlags(handle);
+                if(row != rows[handle] || col != cols[handle]) {
+                    putEvent(handle - previous, MOVE);
+                    putZigzag(row - rows[handle]);
+                    putZigzag(col - cols[handle]);
+                    previous = handle;
+                    events++;
+                }
+                if(flag != flags[handle]) {
+                    putEvent(handle - previous, FLAGS);
+                    putVarint(flag);
+                    previous = handle;
+                    events++;
+                }
+                rows[handle] = row;
+                cols[handle] = col;
+                flags[handle] = flag;
+            }
+            humans[handle] = now;
+        }
+        handles = capacity;
+        // Write the count in a fixed five bytes, so the events need not be moved.
+        for(int i = 0; i < 4; i++) {
+            record[countAt + i] = (byte) ((events >>> (7 * i)) & 0x7F | 0x80);
+        }
+        record[countAt + 4] = (byte) (events >>> 28);
+        writeRecord(STEP, step);
+    }
+
+    /** Remember the current state of a handle and the human that has it */
+    private void remember(HumanStore store, int handle, Human human) {
+        lives[handle] = human.getLife();
+        rows[handle] = store.getRow(handle);
+        cols[handle] = store.getCol(handle);
+        flags[handle] = store.getFlags(handle);
+    }
+
+    /** Make room for the state of the given number of handles */
+    private void grow(int capacity) {
+        if(capacity > humans.length) {
+            int size = Math.max(capacity, humans.length * 2);
+            humans = Arrays.copyOf(humans, size);
+            lives = Arrays.copyOf(lives, size);
+            rows = Arrays.copyOf(rows, size);
+            cols = Arrays.copyOf(cols, size);
+            flags = Arrays.copyOf(flags, size);
+        }
+    }
+
+    /** Write the record made to the file, after its type, step and length */
+    private void writeRecord(int type, int step) throws IOException {
+        out.writeByte(type);
+        writeVarint(step);
+        writeVarint(length);
+        out.write(record, 0, length);
+        bytes += 1 + varintSize(step) + varintSize(length) + length;
+    }
+
+    /** @return The number of bytes of the varint of a value */
+    private static int varintSize(int value) {
+        return value == 0 ? 1 : (38 - Integer.numberOfLeadingZeros(value)) / 7;
+    }
+
+    /** Write a varint directly to the file */
+    private void writeVarint(int value) throws IOException {
+        while((value & ~0x7F) != 0) {
+            out.writeByte(value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    /** Add the start of an event to the record */
+    private void putEvent(int gap, int kind) {
+        putVarint(gap << 2 | kind);
+    }
+
+    /** Add a number that may be negative to the record */
+    private void putZigzag(int value) {
+        putVarint(value << 1 ^ value >> 31);
+    }
+
+    /** Add an unsigned number to the record */
+    private void putVarint(int value) {
+        if(length + 5 > record.length) {
+            record = Arrays.copyOf(record, record.length * 2);
+        }
+        while((value & ~0x7F) != 0) {
+            record[length++] = (byte) (value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        record[length++] = (byte) value;
+    }
+}
@@ -0,0 +1,50 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/** The kernel of Human.updateHealth written with the Vector API, which updates the flags of
+ * as many humans at a time as the widest double vector of the processor has lanes. The
+ * flags are given as longs, the width of the random numbers, so that a vector of flags has
+ * as many lanes as a vector of numbers of the same shape, and the comparisons of the
+ * numbers select lanes of the flags without converting anything. It gives the same flags as
+ * the scalar kernel. The Vector API is still incubating, so this class is compiled and run
+ * with --add-modules jdk.incubator.vector, and only used when the system property
+ * simulation.vectorHealth is true (see Human) */
+public class VectorHealth
+{
+    // The vectors of the random numbers, and those of the flags with as many lanes.
+    private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Long> LONGS = VectorSpecies.of(long.class, DOUBLES.vectorShape());
+
+    /** Update the quarantine and vaccination of many humans at once, as Human.updateHealth,
+     * as many at a time as there are lanes. The humans after the last whole vector of them
+     * are left for the caller.
+     * @param flags The flags of the humans.
+     * @param uniforms A uniform number from 0 to 1 for each human.
+     * @param updated Set to the new flags of the humans.
+     * @param count The number of humans, from the start of the arrays.
+     * @param quarantineProbability The probability an infected human is in quarantine.
+     * @param vaccinatingProbability The probability a human gets vaccinated.
+     * @param healthyColor The color bits of a human that is not vaccinated.
+     * @param vaccinatedColor The color bits of a human that gets vaccinated.
+     * @return The number of humans updated, from the start of the arrays */
+    static int updateHealth(long[] flags, double[] uniforms, long[] updated, int count, double quarantineProbability,
+                            double vaccinatingProbability, int healthyColor, int vaccinatedColor) {
+        int bound = LONGS.loopBound(count);
+        for(int i = 0; i < bound; i += LONGS.length()) {
+            LongVector f = LongVector.fromArray(LONGS, flags, i);
+            DoubleVector u = DoubleVector.fromArray(DOUBLES, uniforms, i);
+            VectorMask<Long> quarantine = u.compare(VectorOperators.LE, quarantineProbability).cast(LONGS);
+            VectorMask<Long> vaccinate = u.compare(VectorOperators.LE, vaccinatingProbability).cast(LONGS);
+            VectorMask<Long> infected = f.and(HumanStore.INFECTED).compare(VectorOperators.NE, 0);
+            VectorMask<Long> vaccinated = f.and(HumanStore.VACCINATED).compare(VectorOperators.NE, 0);
+            LongVector sick = f.and(~HumanStore.QUARANTINE).blend(f.or(HumanStore.QUARANTINE), quarantine);
+            LongVector healthy = f.and(~HumanStore.COLOR_MASK);
+            healthy = healthy.or(healthyColor).blend(healthy.or(HumanStore.VACCINATED | vaccinatedColor), vaccinate);
+            f.blend(healthy, vaccinated.or(infected).not()).blend(sick, infected).intoArray(updated, i);
+        }
+        return bound;
+    }
+}